@@ -0,0 +1,31 @@
+package com.stegrandom.benchmarks;
+
+import com.stegrandom.utils.DataLoader;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The mushroom and churn CSVs bundled with the library. The mushroom label
+ * is the first column and the churn label the last one.
+ */
+@State(Scope.Benchmark)
+public class BundledData extends TreeData {
+  @Param({ "mushroom", "churn" })
+  public String dataset;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path train = Datasets.extract(dataset + "/train.csv");
+    Path test = Datasets.extract(dataset + "/test.csv");
+    String[][] trainRows = new DataLoader(train.toString()).load();
+    String[][] testRows = new DataLoader(test.toString()).load();
+    int target = dataset.equals("mushroom") ? 0 : trainRows[0].length - 1;
+    prepare(train, trainRows, testRows, target);
+  }
+}
@@ -0,0 +1,110 @@
+package com.stegrandom.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Test data for the benchmarks: the CSVs bundled with the library and
+ * synthetic tables of any size.
+ */
+final class Datasets {
+  private Datasets() {
+  }
+
+  /**
+   * Copies a CSV bundled in the library jar to a temporary file, since
+   * {@link com.stegrandom.utils.DataLoader} reads from the file system.
+   *
+   * @param resource the resource path, such as "churn/train.csv"
+   */
+  static Path extract(String resource) {
+    try (InputStream in = Datasets.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalArgumentException("No bundled dataset " + resource);
+      }
+      Path file = Files.createTempFile("dataset", ".csv");
+      file.toFile().deleteOnExit();
+      Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+      return file;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Generates rows of categorical features "v0".."v{cardinality-1}" followed
+   * by a binary label. The label is whether the codes of the first two
+   * features add up to at least the cardinality, flipped for 10% of the rows,
+   * so trees have structure to find and noise to stop on; the other features
+   * are irrelevant.
+   */
+  static String[][] synthetic(int rows, int features, int cardinality, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    String[] values = new String[cardinality];
+    for (int v = 0; v < cardinality; v++) {
+      values[v] = "v" + v;
+    }
+    String[][] table = new String[rows][features + 1];
+    for (int row = 0; row < rows; row++) {
+      int signal = 0;
+      for (int f = 0; f < features; f++) {
+        int code = random.nextInt(cardinality);
+        if (f < 2) {
+          signal += code;
+        }
+        table[row][f] = values[code];
+      }
+      boolean noise = random.nextInt(10) == 0;
+      table[row][features] = (signal >= cardinality) != noise ? "1" : "0";
+    }
+    return table;
+  }
+
+  /**
+   * Writes rows to a temporary CSV with a header line.
+   */
+  static Path writeCsv(String[][] rows) {
+    try {
+      Path file = Files.createTempFile("synthetic", ".csv");
+      file.toFile().deleteOnExit();
+      try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+        String[] header = new String[rows[0].length];
+        for (int c = 0; c < header.length; c++) {
+          header[c] = "c" + c;
+        }
+        writer.write(String.join(",", header));
+        writer.write('\n');
+        for (String[] row : rows) {
+          writer.write(String.join(",", row));
+          writer.write('\n');
+        }
+      }
+      return file;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static String[] column(String[][] rows, int column) {
+    return Arrays.stream(rows).map(row -> row[column]).toArray(String[]::new);
+  }
+
+  static String[][] dropColumn(String[][] rows, int column) {
+    return Arrays.stream(rows)
+        .map(row -> {
+          String[] kept = new String[row.length - 1];
+          System.arraycopy(row, 0, kept, 0, column);
+          System.arraycopy(row, column + 1, kept, column, row.length - column - 1);
+          return kept;
+        })
+        .toArray(String[][]::new);
+  }
+}
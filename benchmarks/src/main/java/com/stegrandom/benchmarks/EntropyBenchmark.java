@@ -0,0 +1,66 @@
+package com.stegrandom.benchmarks;
+
+import com.stegrandom.model.InformationTheoryMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The entropy kernels of {@link InformationTheoryMetrics} over a whole
+ * training set, split on its first feature. The String variants include
+ * encoding the labels and the feature; the int variants take codes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EntropyBenchmark {
+  @Benchmark
+  public double entropyBundled(BundledData data) {
+    return InformationTheoryMetrics.calculateEntropy(data.trainX, data.trainY);
+  }
+
+  @Benchmark
+  public double entropyAfterSplitBundled(BundledData data) {
+    return InformationTheoryMetrics.calculateEntropyAfterSplit(data.trainX, data.trainY, 0);
+  }
+
+  @Benchmark
+  public double entropyEncodedBundled(BundledData data) {
+    return InformationTheoryMetrics.calculateEntropy(data.labelCodes, data.numClasses);
+  }
+
+  @Benchmark
+  public double entropyAfterSplitEncodedBundled(BundledData data) {
+    return InformationTheoryMetrics.calculateEntropyAfterSplit(data.encoded.getColumn(0), data.labelCodes,
+        data.encoded.getFeatureDictionary(0).size(), data.numClasses);
+  }
+
+  @Benchmark
+  public double entropySynthetic(SyntheticData data) {
+    return InformationTheoryMetrics.calculateEntropy(data.trainX, data.trainY);
+  }
+
+  @Benchmark
+  public double entropyAfterSplitSynthetic(SyntheticData data) {
+    return InformationTheoryMetrics.calculateEntropyAfterSplit(data.trainX, data.trainY, 0);
+  }
+
+  @Benchmark
+  public double entropyEncodedSynthetic(SyntheticData data) {
+    return InformationTheoryMetrics.calculateEntropy(data.labelCodes, data.numClasses);
+  }
+
+  @Benchmark
+  public double entropyAfterSplitEncodedSynthetic(SyntheticData data) {
+    return InformationTheoryMetrics.calculateEntropyAfterSplit(data.encoded.getColumn(0), data.labelCodes,
+        data.encoded.getFeatureDictionary(0).size(), data.numClasses);
+  }
+}
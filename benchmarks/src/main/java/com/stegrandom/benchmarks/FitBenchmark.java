@@ -0,0 +1,51 @@
+package com.stegrandom.benchmarks;
+
+import com.stegrandom.model.DecisionTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training a {@link DecisionTree}, both from raw String rows, which includes
+ * encoding them, and from an already encoded dataset.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FitBenchmark {
+  @Benchmark
+  public DecisionTree fitBundled(BundledData data) {
+    DecisionTree tree = new DecisionTree();
+    tree.fit(data.trainX, data.trainY, 0);
+    return tree;
+  }
+
+  @Benchmark
+  public DecisionTree fitEncodedBundled(BundledData data) {
+    DecisionTree tree = new DecisionTree();
+    tree.fit(data.encoded, 0);
+    return tree;
+  }
+
+  @Benchmark
+  public DecisionTree fitSynthetic(SyntheticData data) {
+    DecisionTree tree = new DecisionTree();
+    tree.fit(data.trainX, data.trainY, 0);
+    return tree;
+  }
+
+  @Benchmark
+  public DecisionTree fitEncodedSynthetic(SyntheticData data) {
+    DecisionTree tree = new DecisionTree();
+    tree.fit(data.encoded, 0);
+    return tree;
+  }
+}
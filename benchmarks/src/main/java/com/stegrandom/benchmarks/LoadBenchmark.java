@@ -0,0 +1,33 @@
+package com.stegrandom.benchmarks;
+
+import com.stegrandom.utils.DataLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a training CSV with {@link DataLoader#load()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+  @Benchmark
+  public String[][] loadBundled(BundledData data) throws IOException {
+    return new DataLoader(data.trainCsv.toString()).load();
+  }
+
+  @Benchmark
+  public String[][] loadSynthetic(SyntheticData data) throws IOException {
+    return new DataLoader(data.trainCsv.toString()).load();
+  }
+}
@@ -0,0 +1,71 @@
+package com.stegrandom.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prediction with a trained tree: one raw row at a time, a whole raw batch,
+ * and a column-major batch of encoded rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PredictBenchmark {
+  /**
+   * Cycles through the held-out rows, so single-row predictions do not keep
+   * taking the same path.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+
+    int next(int length) {
+      int row = next;
+      next = row + 1 < length ? row + 1 : 0;
+      return row;
+    }
+  }
+
+  @Benchmark
+  public String predictRowBundled(BundledData data, Cursor cursor) {
+    return data.tree.predict(data.testX[cursor.next(data.testX.length)]);
+  }
+
+  @Benchmark
+  public String[] predictBatchBundled(BundledData data) {
+    return data.tree.predict(data.testX);
+  }
+
+  @Benchmark
+  public int[] predictEncodedBatchBundled(BundledData data) {
+    data.compiled.predictBatch(data.testColumns, data.predictions);
+    return data.predictions;
+  }
+
+  @Benchmark
+  public String predictRowSynthetic(SyntheticData data, Cursor cursor) {
+    return data.tree.predict(data.testX[cursor.next(data.testX.length)]);
+  }
+
+  @Benchmark
+  public String[] predictBatchSynthetic(SyntheticData data) {
+    return data.tree.predict(data.testX);
+  }
+
+  @Benchmark
+  public int[] predictEncodedBatchSynthetic(SyntheticData data) {
+    data.compiled.predictBatch(data.testColumns, data.predictions);
+    return data.predictions;
+  }
+}
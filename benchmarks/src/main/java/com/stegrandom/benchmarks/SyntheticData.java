@@ -0,0 +1,31 @@
+package com.stegrandom.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Synthetic categorical data scaled in rows, features and cardinality; see
+ * {@link Datasets#synthetic}. The held-out set is a quarter of the training
+ * size, drawn with another seed.
+ */
+@State(Scope.Benchmark)
+public class SyntheticData extends TreeData {
+  @Param({ "10000", "100000", "1000000" })
+  public int rows;
+
+  @Param({ "8", "32" })
+  public int features;
+
+  @Param({ "4", "32" })
+  public int cardinality;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    String[][] trainRows = Datasets.synthetic(rows, features, cardinality, 1);
+    String[][] testRows = Datasets.synthetic(Math.max(1, rows / 4), features, cardinality, 2);
+    prepare(Datasets.writeCsv(trainRows), trainRows, testRows, features);
+  }
+}
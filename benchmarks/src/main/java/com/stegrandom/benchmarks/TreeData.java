@@ -0,0 +1,54 @@
+package com.stegrandom.benchmarks;
+
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.model.CompiledTree;
+import com.stegrandom.model.DecisionTree;
+
+import java.nio.file.Path;
+
+/**
+ * The state shared by the benchmarks of one dataset: its training CSV, the
+ * raw and encoded training data, held-out rows and a tree trained on it.
+ * Subclasses choose the data.
+ */
+public abstract class TreeData {
+  Path trainCsv;
+  String[][] trainX;
+  String[] trainY;
+  String[][] testX;
+  EncodedDataset encoded;
+  int[] labelCodes;
+  int numClasses;
+  DecisionTree tree;
+  CompiledTree compiled;
+  int[][] testColumns;
+  int[] predictions;
+
+  /**
+   * @param trainRows the raw training rows, label included
+   * @param testRows  the raw held-out rows, label included
+   * @param target    the label column
+   */
+  void prepare(Path trainCsv, String[][] trainRows, String[][] testRows, int target) {
+    this.trainCsv = trainCsv;
+    this.trainX = Datasets.dropColumn(trainRows, target);
+    this.trainY = Datasets.column(trainRows, target);
+    this.testX = Datasets.dropColumn(testRows, target);
+    this.encoded = EncodedDataset.encode(trainX, trainY);
+    this.labelCodes = encoded.getLabels();
+    this.numClasses = encoded.getNumClasses();
+
+    this.tree = new DecisionTree();
+    tree.fit(encoded, 0);
+    this.compiled = tree.compile();
+
+    String[][] columns = new String[testX[0].length][testX.length];
+    for (int row = 0; row < testX.length; row++) {
+      for (int f = 0; f < columns.length; f++) {
+        columns[f][row] = testX[row][f];
+      }
+    }
+    this.testColumns = compiled.encodeColumns(columns);
+    this.predictions = new int[testX.length];
+  }
+}
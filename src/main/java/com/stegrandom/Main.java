@@ -1,9 +1,7 @@
 package com.stegrandom;
 
-import java.util.*;
-
+import com.stegrandom.model.ConfusionMatrix;
 import com.stegrandom.model.DecisionTree;
-import com.stegrandom.model.InformationTheoryMetrics;
 
 public class Main {
     public static void main(String[] args) {
@@ -60,22 +58,12 @@ public class Main {
         // Make predictions on test data
         String[] predictions = tree.predict(testX);
 
-        // Convert String arrays to double arrays for metrics
-        double[] actualValuesDouble = Arrays.stream(testY)
-                .mapToDouble(label -> label.equals("positive") ? 1.0 : 0.0)
-                .toArray();
-        double[] predictedValuesDouble = Arrays.stream(predictions)
-                .mapToDouble(label -> label.equals("positive") ? 1.0 : 0.0)
-                .toArray();
-
-        double accuracy = InformationTheoryMetrics.calculateAccuracy(actualValuesDouble,
-                predictedValuesDouble);
-        double precision = InformationTheoryMetrics.calculatePrecision(actualValuesDouble,
-                predictedValuesDouble);
-        double recall = InformationTheoryMetrics.calculateRecall(actualValuesDouble,
-                predictedValuesDouble);
-        double fscore = InformationTheoryMetrics.calculateFScore(actualValuesDouble,
-                predictedValuesDouble);
+        // Count every (actual, predicted) pair once; all metrics come from the matrix
+        ConfusionMatrix matrix = ConfusionMatrix.evaluate(testY, predictions);
+        double accuracy = matrix.getAccuracy();
+        double precision = matrix.getPrecision("positive");
+        double recall = matrix.getRecall("positive");
+        double fscore = matrix.getFScore("positive");
 
         System.out.println("Model Performance:");
         System.out.println("Accuracy: " + accuracy);
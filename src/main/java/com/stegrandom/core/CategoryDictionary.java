@@ -0,0 +1,76 @@
+package com.stegrandom.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the distinct String values of one column to dense int codes.
+ * Codes are assigned in first-seen order starting at 0, so a column with k
+ * distinct values is coded as 0..k-1.
+ * 
+ * A dictionary is not safe for concurrent use while it is still growing; use
+ * {@link #toImmutable()} to share a finished one.
+ */
+public class CategoryDictionary {
+  public static final int UNKNOWN = -1;
+
+  private final Map<String, Integer> codes;
+  private final List<String> values;
+  private final boolean immutable;
+
+  public CategoryDictionary() {
+    this.codes = new HashMap<>();
+    this.values = new ArrayList<>();
+    this.immutable = false;
+  }
+
+  private CategoryDictionary(Map<String, Integer> codes, List<String> values) {
+    this.codes = codes;
+    this.values = values;
+    this.immutable = true;
+  }
+
+  /**
+   * Returns a read-only copy with the same codes. It can be shared between
+   * threads without synchronization; {@link #encode} fails for new values.
+   * A dictionary that is already read-only returns itself.
+   */
+  public CategoryDictionary toImmutable() {
+    if (immutable) {
+      return this;
+    }
+    return new CategoryDictionary(Map.copyOf(codes), List.copyOf(values));
+  }
+
+  /**
+   * Returns the code for a value, assigning the next free code if the value
+   * has not been seen before.
+   */
+  public int encode(String value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * Returns the code for a value, or {@link #UNKNOWN} if it was never seen.
+   */
+  public int codeOf(String value) {
+    Integer code = codes.get(value);
+    return code != null ? code : UNKNOWN;
+  }
+
+  public String decode(int code) {
+    return values.get(code);
+  }
+
+  public int size() {
+    return values.size();
+  }
+}
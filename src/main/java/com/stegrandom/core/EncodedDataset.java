@@ -0,0 +1,161 @@
+package com.stegrandom.core;
+
+/**
+ * Column-major, dictionary-encoded form of a {@link Dataset}.
+ * Every feature is stored as one int[] of codes and every label as a code in
+ * the label dictionary, so training never touches the original Strings.
+ * Numeric features are coded by quantile bin through {@link NumericBins}.
+ */
+public class EncodedDataset {
+  private final int[][] columns; // columns[feature][row]
+  private final int[] labels;
+  private final CategoryDictionary[] featureDictionaries;
+  private final CategoryDictionary labelDictionary;
+
+  public EncodedDataset(int[][] columns, int[] labels,
+      CategoryDictionary[] featureDictionaries, CategoryDictionary labelDictionary) {
+    this.columns = columns;
+    this.labels = labels;
+    this.featureDictionaries = featureDictionaries;
+    this.labelDictionary = labelDictionary;
+  }
+
+  /**
+   * Encodes a row-major String matrix and its labels, building a fresh
+   * dictionary for every column. Numeric columns are then detected and
+   * binned, see {@link #binNumericFeatures}.
+   *
+   * @param x the feature matrix, x[i][j] is the j-th feature of the i-th sample
+   * @param y the label of each sample
+   * @return the encoded dataset
+   */
+  public static EncodedDataset encode(String[][] x, String[] y) {
+    int numRows = x.length;
+    int numFeatures = numRows > 0 ? x[0].length : 0;
+
+    CategoryDictionary[] dictionaries = new CategoryDictionary[numFeatures];
+    int[][] columns = new int[numFeatures][numRows];
+    for (int feature = 0; feature < numFeatures; feature++) {
+      CategoryDictionary dictionary = new CategoryDictionary();
+      int[] column = columns[feature];
+      for (int row = 0; row < numRows; row++) {
+        column[row] = dictionary.encode(x[row][feature]);
+      }
+      dictionaries[feature] = dictionary;
+    }
+
+    CategoryDictionary labelDictionary = new CategoryDictionary();
+    int[] labels = new int[numRows];
+    for (int row = 0; row < numRows; row++) {
+      labels[row] = labelDictionary.encode(y[row]);
+    }
+
+    EncodedDataset data = new EncodedDataset(columns, labels, dictionaries, labelDictionary);
+    data.binNumericFeatures(NumericBins.MAX_BINS);
+    return data;
+  }
+
+  public static EncodedDataset encode(Dataset dataset) {
+    return encode(dataset.getX(), dataset.getY());
+  }
+
+  /**
+   * Replaces the categorical coding of every numeric feature by quantile
+   * bins, in place. A feature is numeric when all of its values parse as
+   * finite numbers and it has more than
+   * {@link NumericBins#MIN_DISTINCT_VALUES} of them; low-cardinality numeric
+   * codes such as flags stay categorical. The bins are computed from the
+   * dictionary and the value counts, so this costs one pass over each
+   * numeric column.
+   *
+   * @param maxBins the maximum number of bins per feature
+   */
+  public void binNumericFeatures(int maxBins) {
+    for (int feature = 0; feature < columns.length; feature++) {
+      double[] values = NumericBins.numericValues(featureDictionaries[feature]);
+      if (values == null) {
+        continue;
+      }
+
+      int[] column = columns[feature];
+      int[] counts = new int[values.length];
+      for (int code : column) {
+        counts[code]++;
+      }
+      // Distinct strings such as "1" and "1.0" may parse to the same number;
+      // fromCounts treats them as one value
+      NumericBins bins = NumericBins.fromCounts(values, counts, maxBins);
+      int[] remap = new int[values.length];
+      for (int code = 0; code < values.length; code++) {
+        remap[code] = bins.binOf(values[code]);
+      }
+      for (int row = 0; row < column.length; row++) {
+        column[row] = remap[column[row]];
+      }
+      featureDictionaries[feature] = bins;
+    }
+  }
+
+  /**
+   * Builds a new dataset holding only the given rows. The dictionaries are
+   * shared with this dataset so codes keep their meaning.
+   */
+  public EncodedDataset subset(int[] rows) {
+    int[][] subColumns = new int[columns.length][rows.length];
+    int[] subLabels = new int[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      subLabels[i] = labels[rows[i]];
+    }
+    for (int feature = 0; feature < columns.length; feature++) {
+      int[] column = columns[feature];
+      int[] subColumn = subColumns[feature];
+      for (int i = 0; i < rows.length; i++) {
+        subColumn[i] = column[rows[i]];
+      }
+    }
+    return new EncodedDataset(subColumns, subLabels, featureDictionaries, labelDictionary);
+  }
+
+  /**
+   * Decodes the dataset back into its row-major String form.
+   */
+  public Dataset decode() {
+    String[][] x = new String[labels.length][columns.length];
+    String[] y = new String[labels.length];
+    for (int row = 0; row < labels.length; row++) {
+      for (int feature = 0; feature < columns.length; feature++) {
+        x[row][feature] = featureDictionaries[feature].decode(columns[feature][row]);
+      }
+      y[row] = labelDictionary.decode(labels[row]);
+    }
+    return new Dataset(x, y);
+  }
+
+  public int getNumRows() {
+    return labels.length;
+  }
+
+  public int getNumFeatures() {
+    return columns.length;
+  }
+
+  public int getNumClasses() {
+    return labelDictionary.size();
+  }
+
+  public int[] getColumn(int feature) {
+    return columns[feature];
+  }
+
+  public int[] getLabels() {
+    return labels;
+  }
+
+  public CategoryDictionary getFeatureDictionary(int feature) {
+    return featureDictionaries[feature];
+  }
+
+  public CategoryDictionary getLabelDictionary() {
+    return labelDictionary;
+  }
+}
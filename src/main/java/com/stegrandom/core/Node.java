@@ -3,14 +3,19 @@ package com.stegrandom.core;
 import java.util.*;
 
 public class Node {
-    private Dataset dataPoints; // The data points that reach this node
-    private String predictedClass;
-    Map<String, Node> children; // empty if leaf
-    private Integer splitFeatureIndex;
+    private String predictedClass; // Majority class of the training rows that reached this node
+    private int[] classCounts; // Training rows per class code at this node
+    private int splitFeatureIndex = -1; // -1 if leaf
+    private double splitThreshold = Double.NaN; // Set for numeric splits, NaN otherwise
+    private double informationGain = Double.NaN; // Gain of the split, NaN if leaf
+    private Map<String, Node> children; // null if leaf
+    private RowSlice dataPoints; // Only kept when training with sample retention
 
-    public Node(Dataset dataPoints) {
+    public Node() {
+    }
+
+    public Node(RowSlice dataPoints) {
         this.dataPoints = dataPoints;
-        this.children = new HashMap<>();
     }
 
     public void setSplitFeatureIndex(int featureIndex) {
@@ -21,12 +26,53 @@ public class Node {
         return splitFeatureIndex;
     }
 
-    public Dataset getDataPoints() {
+    /**
+     * Makes this a binary numeric split: values up to and including the
+     * threshold go to the child under {@link #lessOrEqualLabel}, larger ones
+     * to the child under {@link #greaterLabel}.
+     */
+    public void setSplitThreshold(double threshold) {
+        this.splitThreshold = threshold;
+    }
+
+    public double getSplitThreshold() {
+        return splitThreshold;
+    }
+
+    public boolean isThresholdSplit() {
+        return !Double.isNaN(splitThreshold);
+    }
+
+    /**
+     * Records the information gain of the split made at this node, so the
+     * tree can later be pruned to stricter limits without retraining.
+     */
+    public void setInformationGain(double informationGain) {
+        this.informationGain = informationGain;
+    }
+
+    public double getInformationGain() {
+        return informationGain;
+    }
+
+    public static String lessOrEqualLabel(double threshold) {
+        return "<= " + threshold;
+    }
+
+    public static String greaterLabel(double threshold) {
+        return "> " + threshold;
+    }
+
+    /**
+     * @return the training rows that reached this node, or null unless the
+     *         tree was trained with sample retention enabled
+     */
+    public RowSlice getDataPoints() {
         return dataPoints;
     }
 
-    public void setDataPoints(Dataset splitResult) {
-        this.dataPoints = splitResult;
+    public void setDataPoints(RowSlice dataPoints) {
+        this.dataPoints = dataPoints;
     }
 
     public String getPredictedClass() {
@@ -37,20 +83,57 @@ public class Node {
         this.predictedClass = predictedClass;
     }
 
+    public int[] getClassCounts() {
+        return classCounts;
+    }
+
+    public void setClassCounts(int[] classCounts) {
+        this.classCounts = classCounts;
+    }
+
+    public int getSampleCount() {
+        int total = 0;
+        if (classCounts != null) {
+            for (int count : classCounts) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
     public boolean isLeaf() {
-        return children.isEmpty(); // A leaf node has no children
+        return children == null || children.isEmpty(); // A leaf node has no children
     }
 
     public Map<String, Node> getChildren() {
-        return children;
+        return children != null ? children : Collections.emptyMap();
     }
 
     public void setChildren(Map<String, Node> children) {
         this.children = children;
     }
 
+    public void addChild(String featureValue, Node child) {
+        if (children == null) {
+            children = new HashMap<>();
+        }
+        children.put(featureValue, child);
+    }
+
     // During prediction
     public Node getNextNode(String featureValue) {
-        return children != null ? children.get(featureValue) : null;
+        if (children == null) {
+            return null;
+        }
+        if (isThresholdSplit()) {
+            double value = NumericBins.parse(featureValue);
+            if (Double.isNaN(value)) {
+                return null;
+            }
+            return children.get(value <= splitThreshold
+                    ? lessOrEqualLabel(splitThreshold)
+                    : greaterLabel(splitThreshold));
+        }
+        return children.get(featureValue);
     }
 }
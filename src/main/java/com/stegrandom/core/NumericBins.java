@@ -0,0 +1,180 @@
+package com.stegrandom.core;
+
+import java.util.Arrays;
+
+/**
+ * The dictionary of a numeric column: values are coded by the quantile bin
+ * they fall into rather than by their exact text.
+ *
+ * Bin b holds the values in (upperBounds[b - 1], upperBounds[b]], and values
+ * above the last bound go to the last bin, so any number has a code. Codes
+ * are ordered like the values, which lets a tree split a numeric feature with
+ * a single threshold on the bin code instead of one branch per distinct value.
+ *
+ * Bins are immutable once built and safe to share between threads.
+ */
+public class NumericBins extends CategoryDictionary {
+  public static final int MAX_BINS = 255;
+  // Numeric columns with at most this many distinct values stay categorical
+  public static final int MIN_DISTINCT_VALUES = 16;
+
+  private final double[] upperBounds;
+
+  /**
+   * @param upperBounds the strictly increasing inclusive upper bound of every
+   *                    bin; the last one is the largest training value
+   */
+  public NumericBins(double[] upperBounds) {
+    if (upperBounds.length == 0) {
+      throw new IllegalArgumentException("Numeric bins need at least one bin");
+    }
+    for (int b = 1; b < upperBounds.length; b++) {
+      if (!(upperBounds[b] > upperBounds[b - 1])) {
+        throw new IllegalArgumentException("Bin bounds must be strictly increasing");
+      }
+    }
+    this.upperBounds = upperBounds.clone();
+  }
+
+  /**
+   * Builds at most maxBins bins holding roughly equal numbers of rows.
+   * A value is never split across bins, so a value more frequent than
+   * 1 / maxBins of the rows gets a bin of its own. Entries that are equal as
+   * numbers, such as "5" and "5.0" or "0" and "-0", count as one value.
+   *
+   * @param values  the values of the column's distinct strings
+   * @param counts  the number of rows holding each value
+   * @param maxBins the maximum number of bins
+   * @return the bins
+   */
+  public static NumericBins fromCounts(double[] values, int[] counts, int maxBins) {
+    Integer[] order = new Integer[values.length];
+    long total = 0;
+    for (int i = 0; i < values.length; i++) {
+      order[i] = i;
+      total += counts[i];
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+    double[] bounds = new double[Math.min(values.length, maxBins)];
+    int numBins = 0;
+    long cumulative = 0;
+    long closedQuantile = 0;
+    for (int i = 0; i < order.length; i++) {
+      cumulative += counts[order[i]];
+      if (i + 1 < order.length && values[order[i + 1]] == values[order[i]]) {
+        continue;
+      }
+      long quantile = cumulative * maxBins / total;
+      if (quantile > closedQuantile || i == order.length - 1) {
+        bounds[numBins++] = values[order[i]];
+        closedQuantile = quantile;
+      }
+    }
+    return new NumericBins(Arrays.copyOf(bounds, numBins));
+  }
+
+  /**
+   * Parses the entries of a dictionary that should be binned: those of a
+   * categorical dictionary with more than {@link #MIN_DISTINCT_VALUES}
+   * entries that all parse as finite numbers.
+   *
+   * @return the value of every code, or null if the dictionary stays as it is
+   */
+  public static double[] numericValues(CategoryDictionary dictionary) {
+    if (dictionary instanceof NumericBins || dictionary.size() <= MIN_DISTINCT_VALUES) {
+      return null;
+    }
+    double[] values = new double[dictionary.size()];
+    for (int code = 0; code < values.length; code++) {
+      values[code] = parse(dictionary.decode(code));
+      if (Double.isNaN(values[code])) {
+        return null;
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Parses a numeric value, returning NaN for anything that is not a finite
+   * number.
+   */
+  public static double parse(String value) {
+    try {
+      double number = Double.parseDouble(value);
+      return Double.isFinite(number) ? number : Double.NaN;
+    } catch (NumberFormatException | NullPointerException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * @return the bin of a number
+   */
+  public int binOf(double value) {
+    int low = 0;
+    int high = upperBounds.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (value <= upperBounds[mid]) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the inclusive upper bound of a bin, the threshold of a split that
+   *         sends that bin and every lower one to the left
+   */
+  public double getUpperBound(int bin) {
+    return upperBounds[bin];
+  }
+
+  public double[] getUpperBounds() {
+    return upperBounds.clone();
+  }
+
+  @Override
+  public NumericBins toImmutable() {
+    return this;
+  }
+
+  /**
+   * Bins are fixed, so encoding is the same as {@link #codeOf}, except that
+   * a value that is not a number is rejected.
+   */
+  @Override
+  public int encode(String value) {
+    int code = codeOf(value);
+    if (code == UNKNOWN) {
+      throw new IllegalArgumentException("Not a numeric value: " + value);
+    }
+    return code;
+  }
+
+  /**
+   * @return the bin of a numeric value, or {@link #UNKNOWN} if it does not
+   *         parse as a finite number
+   */
+  @Override
+  public int codeOf(String value) {
+    double number = parse(value);
+    return Double.isNaN(number) ? UNKNOWN : binOf(number);
+  }
+
+  /**
+   * @return the upper bound of the bin, a value that encodes back to it
+   */
+  @Override
+  public String decode(int code) {
+    return Double.toString(upperBounds[code]);
+  }
+
+  @Override
+  public int size() {
+    return upperBounds.length;
+  }
+}
@@ -0,0 +1,51 @@
+package com.stegrandom.core;
+
+/**
+ * A contiguous range of a shared row-index array, describing the samples of
+ * an {@link EncodedDataset} that reach one node without copying them.
+ */
+public class RowSlice {
+  private final EncodedDataset data;
+  private final int[] rows;
+  private final int from;
+  private final int to;
+
+  public RowSlice(EncodedDataset data, int[] rows, int from, int to) {
+    this.data = data;
+    this.rows = rows;
+    this.from = from;
+    this.to = to;
+  }
+
+  public EncodedDataset getData() {
+    return data;
+  }
+
+  public int[] getRows() {
+    return rows;
+  }
+
+  public int getFrom() {
+    return from;
+  }
+
+  public int getTo() {
+    return to;
+  }
+
+  public int size() {
+    return to - from;
+  }
+
+  /**
+   * @return the number of samples of each class code in this slice
+   */
+  public int[] countClasses() {
+    int[] labels = data.getLabels();
+    int[] counts = new int[data.getNumClasses()];
+    for (int i = from; i < to; i++) {
+      counts[labels[rows[i]]]++;
+    }
+    return counts;
+  }
+}
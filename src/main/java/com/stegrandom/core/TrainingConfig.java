@@ -1,25 +1,244 @@
 package com.stegrandom.core;
 
+import java.time.Duration;
+
+/**
+ * The pre-pruning limits of a decision tree.
+ *
+ * By default every limit is derived from the training set: sqrt(n)/10
+ * minimum samples, ln(n) maximum depth and 1% of the initial entropy as the
+ * minimum entropy decrease. A config built with {@link #builder()} fixes some
+ * or all of them; the rest are still derived when training starts, through
+ * {@link #resolve(double, int)}.
+ *
+ * A config can also set budgets: a wall-clock time, a number of nodes and an
+ * approximate heap size for training. When one runs out, the tree stops
+ * growing and every node still open becomes a majority-class leaf, so a
+ * budgeted fit always returns a valid tree. Budgets are unlimited by default.
+ */
 public class TrainingConfig {
+  // Marks a limit that is derived from the training set
+  public static final int DERIVED = -1;
+
+  /**
+   * The budgets a fit can run out of.
+   */
+  public enum Budget {
+    TIME, NODES, HEAP
+  }
+
   private final int minSamplesAllowed;
   private final int maxDepthAllowed;
   private final double minEntropyDecreaseAllowed;
+  private final long timeBudgetNanos;
+  private final int maxNodes;
+  private final long heapBudgetBytes;
 
   public TrainingConfig(double initialEntropy, int n) {
     this.minSamplesAllowed = (int) Math.sqrt(n) / 10;
     this.maxDepthAllowed = (int) Math.log(n);
     this.minEntropyDecreaseAllowed = initialEntropy / 100;
+    this.timeBudgetNanos = Long.MAX_VALUE;
+    this.maxNodes = Integer.MAX_VALUE;
+    this.heapBudgetBytes = Long.MAX_VALUE;
+  }
+
+  private TrainingConfig(int minSamplesAllowed, int maxDepthAllowed, double minEntropyDecreaseAllowed,
+      long timeBudgetNanos, int maxNodes, long heapBudgetBytes) {
+    this.minSamplesAllowed = minSamplesAllowed;
+    this.maxDepthAllowed = maxDepthAllowed;
+    this.minEntropyDecreaseAllowed = minEntropyDecreaseAllowed;
+    this.timeBudgetNanos = timeBudgetNanos;
+    this.maxNodes = maxNodes;
+    this.heapBudgetBytes = heapBudgetBytes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
   }
 
+  /**
+   * Fills in the limits that were left to be derived.
+   *
+   * @param initialEntropy the label entropy of the training set
+   * @param n              the number of training rows
+   * @return a config with every limit set
+   */
+  public TrainingConfig resolve(double initialEntropy, int n) {
+    if (isResolved()) {
+      return this;
+    }
+    TrainingConfig derived = new TrainingConfig(initialEntropy, n);
+    return new TrainingConfig(
+        minSamplesAllowed != DERIVED ? minSamplesAllowed : derived.minSamplesAllowed,
+        maxDepthAllowed != DERIVED ? maxDepthAllowed : derived.maxDepthAllowed,
+        !Double.isNaN(minEntropyDecreaseAllowed) ? minEntropyDecreaseAllowed
+            : derived.minEntropyDecreaseAllowed,
+        timeBudgetNanos, maxNodes, heapBudgetBytes);
+  }
+
+  /**
+   * @return whether every limit is set
+   */
+  public boolean isResolved() {
+    return minSamplesAllowed != DERIVED && maxDepthAllowed != DERIVED
+        && !Double.isNaN(minEntropyDecreaseAllowed);
+  }
+
+  /**
+   * @return the fewest rows a node needs to be split, or {@link #DERIVED}
+   */
   public int getMinSamplesAllowed() {
     return minSamplesAllowed;
   }
 
+  /**
+   * @return the depth at which nodes stop being split, or {@link #DERIVED}
+   */
   public int getMaxDepthAllowed() {
     return maxDepthAllowed;
   }
 
+  /**
+   * @return the smallest information gain worth a split, or NaN when derived
+   */
   public double getMinEntropyDecreaseAllowed() {
     return minEntropyDecreaseAllowed;
   }
+
+  /**
+   * @return the wall-clock time a fit may take, Long.MAX_VALUE if unlimited
+   */
+  public long getTimeBudgetNanos() {
+    return timeBudgetNanos;
+  }
+
+  /**
+   * @return the most nodes the tree may have, Integer.MAX_VALUE if unlimited
+   */
+  public int getMaxNodes() {
+    return maxNodes;
+  }
+
+  /**
+   * @return the approximate bytes the growing tree and its working
+   *         histograms may take, Long.MAX_VALUE if unlimited
+   */
+  public long getHeapBudgetBytes() {
+    return heapBudgetBytes;
+  }
+
+  /**
+   * @return whether any budget is set
+   */
+  public boolean hasBudget() {
+    return timeBudgetNanos != Long.MAX_VALUE || maxNodes != Integer.MAX_VALUE
+        || heapBudgetBytes != Long.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("TrainingConfig{minSamples=")
+        .append(minSamplesAllowed == DERIVED ? "derived" : minSamplesAllowed)
+        .append(", maxDepth=").append(maxDepthAllowed == DERIVED ? "derived" : maxDepthAllowed)
+        .append(", minEntropyDecrease=")
+        .append(Double.isNaN(minEntropyDecreaseAllowed) ? "derived" : minEntropyDecreaseAllowed);
+    if (timeBudgetNanos != Long.MAX_VALUE) {
+      builder.append(", timeBudget=").append(Duration.ofNanos(timeBudgetNanos));
+    }
+    if (maxNodes != Integer.MAX_VALUE) {
+      builder.append(", maxNodes=").append(maxNodes);
+    }
+    if (heapBudgetBytes != Long.MAX_VALUE) {
+      builder.append(", heapBudgetBytes=").append(heapBudgetBytes);
+    }
+    return builder.append("}").toString();
+  }
+
+  /**
+   * Builds a config with explicit limits. Limits that are not set are derived
+   * from the training set.
+   */
+  public static class Builder {
+    private int minSamples = DERIVED;
+    private int maxDepth = DERIVED;
+    private double minEntropyDecrease = Double.NaN;
+    private long timeBudgetNanos = Long.MAX_VALUE;
+    private int maxNodes = Integer.MAX_VALUE;
+    private long heapBudgetBytes = Long.MAX_VALUE;
+
+    private Builder() {
+    }
+
+    public Builder minSamples(int minSamples) {
+      if (minSamples < 0) {
+        throw new IllegalArgumentException("Minimum samples cannot be negative");
+      }
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    public Builder maxDepth(int maxDepth) {
+      if (maxDepth < 0) {
+        throw new IllegalArgumentException("Maximum depth cannot be negative");
+      }
+      this.maxDepth = maxDepth;
+      return this;
+    }
+
+    /**
+     * Sets the smallest information gain worth a split. With 0, any split
+     * that gains something is made; a split that gains nothing never is.
+     */
+    public Builder minEntropyDecrease(double minEntropyDecrease) {
+      if (!(minEntropyDecrease >= 0)) {
+        throw new IllegalArgumentException("Minimum entropy decrease must be a non-negative number");
+      }
+      this.minEntropyDecrease = minEntropyDecrease;
+      return this;
+    }
+
+    /**
+     * Limits the wall-clock time of a fit, counted from the call to fit, so
+     * encoding String data counts against it. Turning the open nodes into
+     * leaves when it runs out takes one more pass over their rows.
+     */
+    public Builder timeBudget(Duration timeBudget) {
+      if (timeBudget.isNegative() || timeBudget.isZero()) {
+        throw new IllegalArgumentException("The time budget must be positive");
+      }
+      this.timeBudgetNanos = timeBudget.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0
+          ? Long.MAX_VALUE - 1
+          : timeBudget.toNanos();
+      return this;
+    }
+
+    /**
+     * Limits the number of nodes of the tree, leaves included.
+     */
+    public Builder maxNodes(int maxNodes) {
+      if (maxNodes < 1) {
+        throw new IllegalArgumentException("A tree has at least one node");
+      }
+      this.maxNodes = maxNodes;
+      return this;
+    }
+
+    /**
+     * Limits the approximate heap taken by the growing tree and the
+     * histograms of its open nodes. The training data itself is not counted.
+     */
+    public Builder heapBudget(long bytes) {
+      if (bytes <= 0) {
+        throw new IllegalArgumentException("The heap budget must be positive");
+      }
+      this.heapBudgetBytes = bytes;
+      return this;
+    }
+
+    public TrainingConfig build() {
+      return new TrainingConfig(minSamples, maxDepth, minEntropyDecrease,
+          timeBudgetNanos, maxNodes, heapBudgetBytes);
+    }
+  }
 }
@@ -0,0 +1,160 @@
+package com.stegrandom.examples;
+
+import com.stegrandom.core.TrainingConfig;
+import com.stegrandom.model.DecisionTree;
+import com.stegrandom.model.GridSearch;
+import com.stegrandom.utils.ColumnStore;
+import com.stegrandom.utils.DataLoader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the training backends grow the same tree. Every dataset is
+ * trained by each backend under each config, and the trees are compared as
+ * model files, which hold the compiled node arrays and the dictionaries.
+ * It also checks that a {@link GridSearch} over a whole grid, which grows one
+ * tree per fold and truncates it per config, scores every config exactly as
+ * a search over that config alone does.
+ * Exits with status 1 if any tree or score differs.
+ */
+public class BackendEquivalenceCheck {
+  private static final String MUSHROOM_PATH = "src/main/resources/mushroom/train.csv";
+  private static final String CHURN_PATH = "src/main/resources/churn/train.csv";
+
+  public static void main(String[] args) {
+    try {
+      List<TrainingConfig> configs = List.of(
+          TrainingConfig.builder().build(),
+          TrainingConfig.builder().minSamples(0).maxDepth(12).minEntropyDecrease(0).build());
+
+      int mismatches = 0;
+      mismatches += check("mushroom", new DataLoader(MUSHROOM_PATH).load(), 0, configs);
+      mismatches += check("churn", new DataLoader(CHURN_PATH).load(), 3, configs);
+      mismatches += check("synthetic", synthetic(5000, 42), 4, configs);
+
+      if (mismatches > 0) {
+        System.out.println(mismatches + " mismatches");
+        System.exit(1);
+      }
+      System.out.println("All backends agree");
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Trains one dataset with every backend and config, then grid-searches it.
+   *
+   * @return the number of trees that differ from the row-index builder's,
+   *         plus the number of configs the grid search scores differently
+   */
+  private static int check(String name, String[][] rows, int targetColumn, List<TrainingConfig> configs)
+      throws IOException {
+    String[][] features = new String[rows.length][];
+    String[] target = new String[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      target[i] = rows[i][targetColumn];
+      List<String> values = new ArrayList<>(Arrays.asList(rows[i]));
+      values.remove(targetColumn);
+      features[i] = values.toArray(new String[0]);
+    }
+
+    Path directory = Files.createTempDirectory("equivalence");
+    try {
+      ColumnStore store;
+      try (Stream<String[]> stream = Arrays.stream(rows)) {
+        store = ColumnStore.write(directory.resolve("store"), stream, targetColumn);
+      }
+
+      int mismatches = 0;
+      for (int c = 0; c < configs.size(); c++) {
+        DecisionTree rowIndex = new DecisionTree();
+        rowIndex.setTrainingConfig(configs.get(c));
+        rowIndex.fit(features, target, 0);
+        byte[] expected = modelBytes(rowIndex, directory);
+
+        DecisionTree outOfCore = new DecisionTree();
+        outOfCore.setTrainingConfig(configs.get(c));
+        outOfCore.fitOutOfCore(store, 1 << 20, 0);
+        mismatches += report(name, c, "out-of-core", expected, modelBytes(outOfCore, directory));
+
+        DecisionTree bitset = new DecisionTree();
+        bitset.setTrainingConfig(configs.get(c));
+        bitset.setBitsetBackend(true);
+        bitset.fit(features, target, 0);
+        mismatches += report(name, c, "bitset", expected, modelBytes(bitset, directory));
+      }
+      return mismatches + checkGridSearch(name, features, target);
+    } finally {
+      delete(directory);
+    }
+  }
+
+  /**
+   * Compares each config's result in a search over the whole grid with a
+   * search over that config alone, whose folds grow that config's own tree.
+   *
+   * @return the number of configs whose pooled matrices differ
+   */
+  private static int checkGridSearch(String name, String[][] features, String[] target) {
+    List<TrainingConfig> grid = GridSearch.grid(new int[] { 0, 20 }, new int[] { 2, 4, 8 },
+        new double[] { 0, 0.01 });
+    List<GridSearch.Result> shared = new GridSearch(5, 7).search(features, target, grid);
+    int mismatches = 0;
+    for (int c = 0; c < grid.size(); c++) {
+      GridSearch.Result alone = new GridSearch(5, 7).search(features, target, List.of(grid.get(c))).get(0);
+      boolean same = alone.getMatrix().toString().equals(shared.get(c).getMatrix().toString());
+      if (!same) {
+        System.out.printf("%-10s grid config %s DIFFERENT%n", name, grid.get(c));
+        mismatches++;
+      }
+    }
+    System.out.printf("%-10s grid search   %d of %d configs same%n", name, grid.size() - mismatches, grid.size());
+    return mismatches;
+  }
+
+  private static int report(String name, int config, String backend, byte[] expected, byte[] actual) {
+    boolean same = Arrays.equals(expected, actual);
+    System.out.printf("%-10s config %d %-12s %s%n", name, config, backend, same ? "same" : "DIFFERENT");
+    return same ? 0 : 1;
+  }
+
+  private static byte[] modelBytes(DecisionTree tree, Path directory) throws IOException {
+    Path file = directory.resolve("model.bin");
+    tree.save(file);
+    return Files.readAllBytes(file);
+  }
+
+  /**
+   * Builds rows with two numeric features, which are binned, two categorical
+   * ones and a label that depends on all of them, in column 4.
+   */
+  private static String[][] synthetic(int numRows, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    String[][] rows = new String[numRows][];
+    for (int i = 0; i < numRows; i++) {
+      double x = Math.round(random.nextDouble() * 1000) / 10.0;
+      int y = random.nextInt(200);
+      String color = "c" + random.nextInt(5);
+      String size = "s" + random.nextInt(3);
+      boolean positive = x + y / 4.0 + (color.equals("c1") ? 30 : 0) > 75 ^ random.nextInt(10) == 0;
+      rows[i] = new String[] { String.valueOf(x), String.valueOf(y), color, size, positive ? "yes" : "no" };
+    }
+    return rows;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted((a, b) -> b.compareTo(a)).toArray(Path[]::new)) {
+        Files.delete(path);
+      }
+    }
+  }
+}
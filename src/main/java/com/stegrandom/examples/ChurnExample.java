@@ -1,5 +1,6 @@
 package com.stegrandom.examples;
 
+import com.stegrandom.model.ConfusionMatrix;
 import com.stegrandom.model.DecisionTree;
 import com.stegrandom.model.InformationTheoryMetrics;
 import com.stegrandom.utils.DataLoader;
@@ -11,6 +12,7 @@ public class ChurnExample {
   // File paths for our training and test data
   private static final String TRAIN_PATH = "src/main/resources/churn/train.csv";
   private static final String TEST_PATH = "src/main/resources/churn/test.csv";
+  private static final String POSITIVE_CLASS = "1";
 
   public static void main(String[] args) {
     try {
@@ -92,12 +94,11 @@ public class ChurnExample {
         }
       }
 
-      // Convert predictions and actual values to double arrays for metrics
-      double[] actualValues = convertToDouble(testTarget);
-      double[] predictedValues = convertToDouble(predictions);
+      // Count every (actual, predicted) pair once; all metrics come from the matrix
+      ConfusionMatrix matrix = ConfusionMatrix.evaluate(testTarget, predictions);
 
       // Calculate and display metrics
-      printMetrics(actualValues, predictedValues);
+      printMetrics(matrix);
 
     } catch (IOException e) {
       System.err.println("Error reading data files: " + e.getMessage());
@@ -129,28 +130,18 @@ public class ChurnExample {
   }
 
   /**
-   * Converts String labels to double values for metric calculations
-   * Assumes binary classification with "1" as positive class
+   * Prints the performance metrics, with "1" as the positive class
    */
-  private static double[] convertToDouble(String[] labels) {
-    return Arrays.stream(labels)
-        .mapToDouble(label -> label.equals("1") ? 1.0 : 0.0)
-        .toArray();
-  }
-
-  /**
-   * Calculates and prints all relevant performance metrics
-   */
-  private static void printMetrics(double[] actual, double[] predicted) {
+  private static void printMetrics(ConfusionMatrix matrix) {
     System.out.println("\nModel Performance Metrics:");
     System.out.println("---------------------------");
     System.out.printf("Accuracy:  %.2f%%%n",
-        InformationTheoryMetrics.calculateAccuracy(actual, predicted) * 100);
+        matrix.getAccuracy() * 100);
     System.out.printf("Precision: %.2f%%%n",
-        InformationTheoryMetrics.calculatePrecision(actual, predicted) * 100);
+        matrix.getPrecision(POSITIVE_CLASS) * 100);
     System.out.printf("Recall:    %.2f%%%n",
-        InformationTheoryMetrics.calculateRecall(actual, predicted) * 100);
+        matrix.getRecall(POSITIVE_CLASS) * 100);
     System.out.printf("F-Score:   %.2f%%%n",
-        InformationTheoryMetrics.calculateFScore(actual, predicted) * 100);
+        matrix.getFScore(POSITIVE_CLASS) * 100);
   }
 }
@@ -0,0 +1,99 @@
+package com.stegrandom.examples;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.utils.DataLoader;
+import com.stegrandom.utils.MappedCsvLoader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that {@link MappedCsvLoader} encodes a file exactly as
+ * {@link EncodedDataset#encode} encodes the rows it parses to. The bundled
+ * datasets are compared with {@link DataLoader}'s rows, using small chunks so
+ * the per-chunk dictionaries are merged, and a CRLF file with a trailing
+ * empty cell and a blank line is compared with the rows the loader documents
+ * for it. Exits with status 1 if any dataset differs.
+ */
+public class CsvLoaderCheck {
+  private static final String MUSHROOM_PATH = "src/main/resources/mushroom/train.csv";
+  private static final String CHURN_PATH = "src/main/resources/churn/train.csv";
+  private static final int CHUNK_SIZE = 4096;
+
+  public static void main(String[] args) {
+    try {
+      int mismatches = 0;
+      mismatches += check("mushroom", MUSHROOM_PATH, new DataLoader(MUSHROOM_PATH).load(), 0);
+      mismatches += check("churn", CHURN_PATH, new DataLoader(CHURN_PATH).load(), 3);
+
+      Path file = Files.createTempFile("crlf", ".csv");
+      try {
+        Files.write(file, "a,b,label\r\nx,,yes\r\ny,1,no\r\n\r\nx,2,\r\n".getBytes(StandardCharsets.UTF_8));
+        String[][] rows = {
+            { "x", "", "yes" },
+            { "y", "1", "no" },
+            { "x", "2", "" } };
+        mismatches += check("crlf", file.toString(), rows, 2);
+      } finally {
+        Files.delete(file);
+      }
+
+      if (mismatches > 0) {
+        System.out.println(mismatches + " mismatches");
+        System.exit(1);
+      }
+      System.out.println("All loaders agree");
+    } catch (IOException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Loads a file with the mapped loader and compares it with the encoding of
+   * the rows it should parse to.
+   *
+   * @return 1 if the columns, labels or dictionaries differ, otherwise 0
+   */
+  private static int check(String name, String path, String[][] rows, int targetColumn) throws IOException {
+    String[][] features = new String[rows.length][];
+    String[] target = new String[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      target[i] = rows[i][targetColumn];
+      List<String> values = new ArrayList<>(Arrays.asList(rows[i]));
+      values.remove(targetColumn);
+      features[i] = values.toArray(new String[0]);
+    }
+    EncodedDataset expected = EncodedDataset.encode(features, target);
+    EncodedDataset actual = new MappedCsvLoader(path, ForkJoinPool.commonPool(), CHUNK_SIZE).load(targetColumn);
+
+    boolean same = expected.getNumRows() == actual.getNumRows()
+        && expected.getNumFeatures() == actual.getNumFeatures()
+        && Arrays.equals(expected.getLabels(), actual.getLabels())
+        && sameDictionary(expected.getLabelDictionary(), actual.getLabelDictionary());
+    for (int f = 0; same && f < expected.getNumFeatures(); f++) {
+      same = Arrays.equals(expected.getColumn(f), actual.getColumn(f))
+          && sameDictionary(expected.getFeatureDictionary(f), actual.getFeatureDictionary(f));
+    }
+    System.out.printf("%-10s %s%n", name, same ? "same" : "DIFFERENT");
+    return same ? 0 : 1;
+  }
+
+  private static boolean sameDictionary(CategoryDictionary expected, CategoryDictionary actual) {
+    if (expected.getClass() != actual.getClass() || expected.size() != actual.size()) {
+      return false;
+    }
+    for (int code = 0; code < expected.size(); code++) {
+      if (!expected.decode(code).equals(actual.decode(code))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -1,7 +1,7 @@
 package com.stegrandom.examples;
 
+import com.stegrandom.model.ConfusionMatrix;
 import com.stegrandom.model.DecisionTree;
-import com.stegrandom.model.InformationTheoryMetrics;
 import com.stegrandom.utils.DataLoader;
 import java.io.IOException;
 import java.util.Arrays;
@@ -12,6 +12,7 @@ public class MushroomExample {
   // File paths for our training and test data
   private static final String TRAIN_PATH = "src/main/resources/mushroom/train.csv";
   private static final String TEST_PATH = "src/main/resources/mushroom/test.csv";
+  private static final String POSITIVE_CLASS = "e";
 
   public static void main(String[] args) {
     try {
@@ -97,12 +98,11 @@ public class MushroomExample {
         }
       }
 
-      // Convert predictions and actual values to double arrays for metrics
-      double[] actualValues = convertToDouble(testTarget);
-      double[] predictedValues = convertToDouble(predictions);
+      // Count every (actual, predicted) pair once; all metrics come from the matrix
+      ConfusionMatrix matrix = ConfusionMatrix.evaluate(testTarget, predictions);
 
       // Calculate and display performance metrics
-      printMetrics(actualValues, predictedValues);
+      printMetrics(matrix);
 
     } catch (IOException e) {
       System.err.println("Error reading data files: " + e.getMessage());
@@ -133,28 +133,18 @@ public class MushroomExample {
   }
 
   /**
-   * Converts String labels to double values for metric calculations
-   * Assumes binary classification with "edible" as positive class
+   * Prints the performance metrics, with "e" (edible) as the positive class
    */
-  private static double[] convertToDouble(String[] labels) {
-    return Arrays.stream(labels)
-        .mapToDouble(label -> label.equals("e") ? 1.0 : 0.0)
-        .toArray();
-  }
-
-  /**
-   * Calculates and prints all relevant performance metrics
-   */
-  private static void printMetrics(double[] actual, double[] predicted) {
+  private static void printMetrics(ConfusionMatrix matrix) {
     System.out.println("\nModel Performance Metrics:");
     System.out.println("---------------------------");
     System.out.printf("Accuracy:  %.2f%%\n",
-        InformationTheoryMetrics.calculateAccuracy(actual, predicted) * 100);
+        matrix.getAccuracy() * 100);
     System.out.printf("Precision: %.2f%%\n",
-        InformationTheoryMetrics.calculatePrecision(actual, predicted) * 100);
+        matrix.getPrecision(POSITIVE_CLASS) * 100);
     System.out.printf("Recall:    %.2f%%\n",
-        InformationTheoryMetrics.calculateRecall(actual, predicted) * 100);
+        matrix.getRecall(POSITIVE_CLASS) * 100);
     System.out.printf("F-Score:   %.2f%%\n",
-        InformationTheoryMetrics.calculateFScore(actual, predicted) * 100);
+        matrix.getFScore(POSITIVE_CLASS) * 100);
   }
 }
\ No newline at end of file
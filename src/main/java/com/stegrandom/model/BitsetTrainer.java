@@ -0,0 +1,324 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.core.Node;
+import com.stegrandom.core.NumericBins;
+import com.stegrandom.core.RowSlice;
+import com.stegrandom.core.TrainingConfig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grows a decision tree with rows represented as bitsets instead of index
+ * arrays.
+ *
+ * Before training, one bitset is built per (feature, value) and per class,
+ * with bit r set when row r has that value or class. The rows of a node are
+ * also a bitset, so every count of a value x class table is a
+ * {@link Long#bitCount} over ANDed words, 64 rows per instruction, and a
+ * split is the node's mask ANDed with each value's mask.
+ *
+ * Node masks are stored sparsely as their non-zero words only, so deep nodes
+ * with few rows cost little no matter where their rows are. Splits are scored
+ * with the same kernels and rules as {@link DecisionTree}, so the tree is the
+ * same as with the row-index builder.
+ */
+class BitsetTrainer {
+  private final EncodedDataset data;
+  private final int numFeatures;
+  private final int numClasses;
+  private final int numRows;
+  private final CategoryDictionary[] dictionaries;
+  private final long[][][] valueMasks; // [feature][value][word]
+  private final long[][] classMasks; // [class][word]
+  private final int[] counts;
+  private final ThresholdScan scan;
+  private final TrainingConfig limits;
+  private final boolean retainSamples;
+  private final TrainingReport report;
+  private TrainingConfig config;
+
+  /**
+   * @param report the report to record nodes in, or null
+   */
+  BitsetTrainer(EncodedDataset data, TrainingConfig limits, boolean retainSamples, TrainingReport report) {
+    this.data = data;
+    this.limits = limits;
+    this.report = report;
+    this.numFeatures = data.getNumFeatures();
+    this.numClasses = data.getNumClasses();
+    this.numRows = data.getNumRows();
+    this.retainSamples = retainSamples;
+    int numWords = (numRows + 63) >>> 6;
+
+    this.dictionaries = new CategoryDictionary[numFeatures];
+    this.valueMasks = new long[numFeatures][][];
+    int maxCardinality = 1;
+    for (int f = 0; f < numFeatures; f++) {
+      dictionaries[f] = data.getFeatureDictionary(f);
+      int cardinality = dictionaries[f].size();
+      maxCardinality = Math.max(maxCardinality, cardinality);
+      long[][] masks = new long[cardinality][numWords];
+      int[] column = data.getColumn(f);
+      for (int row = 0; row < numRows; row++) {
+        masks[column[row]][row >>> 6] |= 1L << row;
+      }
+      valueMasks[f] = masks;
+    }
+    this.classMasks = new long[numClasses][numWords];
+    int[] labels = data.getLabels();
+    for (int row = 0; row < numRows; row++) {
+      classMasks[labels[row]][row >>> 6] |= 1L << row;
+    }
+
+    this.counts = new int[maxCardinality * numClasses];
+    this.scan = new ThresholdScan(numClasses);
+  }
+
+  TrainingConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Grows the tree over every row and returns its root.
+   *
+   * @param depth the depth of the root (typically 0)
+   */
+  Node train(int depth) {
+    int numWords = (numRows + 63) >>> 6;
+    int[] index = new int[numWords];
+    long[] bits = new long[numWords];
+    for (int w = 0; w < numWords; w++) {
+      index[w] = w;
+      bits[w] = -1L;
+    }
+    if ((numRows & 63) != 0) {
+      bits[numWords - 1] = (1L << numRows) - 1;
+    }
+    Mask all = new Mask(index, bits, numWords, numRows);
+
+    int[] classCounts = countClasses(all);
+    double initialEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(
+        classCounts, 0, numClasses, numRows);
+    this.config = DecisionTree.resolveConfig(limits, initialEntropy, numRows);
+
+    Node root = new Node();
+    grow(root, all, depth);
+    return root;
+  }
+
+  private void grow(Node node, Mask mask, int depth) {
+    TreeEvents.NodeSplit event = new TreeEvents.NodeSplit();
+    event.begin();
+    if (retainSamples) {
+      node.setDataPoints(new RowSlice(data, mask.toRows(), 0, mask.size));
+    }
+
+    int[] classCounts = countClasses(mask);
+    double baseEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(
+        classCounts, 0, numClasses, mask.size);
+    double bestEntropyAfterSplit = Double.POSITIVE_INFINITY;
+    int bestFeature = -1;
+    int bestThreshold = -1;
+    for (int f = 0; f < numFeatures; f++) {
+      int cardinality = dictionaries[f].size();
+      fillCounts(mask, f, cardinality);
+      double entropyAfterSplit;
+      int threshold = -1;
+      if (dictionaries[f] instanceof NumericBins) {
+        entropyAfterSplit = scan.scan(counts, 0, cardinality, classCounts, mask.size);
+        threshold = scan.getBestThreshold();
+      } else {
+        entropyAfterSplit = InformationTheoryMetrics.calculateWeightedEntropy(
+            counts, 0, cardinality, numClasses, mask.size);
+      }
+      if (entropyAfterSplit < bestEntropyAfterSplit) {
+        bestEntropyAfterSplit = entropyAfterSplit;
+        bestFeature = f;
+        bestThreshold = threshold;
+      }
+    }
+    if (bestFeature < 0) {
+      bestEntropyAfterSplit = baseEntropy;
+    }
+
+    Split split = new Split(bestFeature, bestThreshold, baseEntropy, bestEntropyAfterSplit,
+        classCounts, mask.size);
+    node.setClassCounts(classCounts);
+    node.setPredictedClass(data.getLabelDictionary().decode(split.getMajorityClass()));
+    TrainingReport.StopReason stopReason = DecisionTree.stopReason(split, depth, config);
+    if (report != null) {
+      report.recordNode(depth);
+      report.addRowsScanned(mask.size);
+      if (stopReason != null) {
+        report.recordLeaf(depth, stopReason);
+      } else {
+        report.addRowsPartitioned(mask.size);
+      }
+    }
+    if (stopReason != null) {
+      DecisionTree.commitSplit(event, depth, mask.size, split, stopReason);
+      return;
+    }
+    node.setInformationGain(split.getInformationGain());
+
+    long[][] masks = valueMasks[bestFeature];
+    List<Node> childNodes = new ArrayList<>();
+    List<Mask> childMasks = new ArrayList<>();
+    Map<String, Node> childMap = new HashMap<>();
+    if (split.isThresholdSplit()) {
+      // The left child is the node ANDed with the union of the bins up to the threshold
+      Mask left = mask.and(masks, bestThreshold, false);
+      Mask right = mask.and(masks, bestThreshold, true);
+      double threshold = ((NumericBins) dictionaries[bestFeature]).getUpperBound(bestThreshold);
+      Node leftNode = new Node();
+      Node rightNode = new Node();
+      childMap.put(Node.lessOrEqualLabel(threshold), leftNode);
+      childMap.put(Node.greaterLabel(threshold), rightNode);
+      childNodes.add(leftNode);
+      childNodes.add(rightNode);
+      childMasks.add(left);
+      childMasks.add(right);
+      node.setSplitThreshold(threshold);
+    } else {
+      for (int value = 0; value < masks.length; value++) {
+        Mask child = mask.and(masks[value]);
+        if (child.size > 0) {
+          Node childNode = new Node();
+          childMap.put(dictionaries[bestFeature].decode(value), childNode);
+          childNodes.add(childNode);
+          childMasks.add(child);
+        }
+      }
+    }
+    node.setSplitFeatureIndex(bestFeature);
+    node.setChildren(childMap);
+    DecisionTree.commitSplit(event, depth, mask.size, split, null);
+
+    for (int i = 0; i < childNodes.size(); i++) {
+      Mask child = childMasks.get(i);
+      childMasks.set(i, null);
+      grow(childNodes.get(i), child, depth + 1);
+    }
+  }
+
+  private int[] countClasses(Mask mask) {
+    int[] classCounts = new int[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      long[] classMask = classMasks[c];
+      int count = 0;
+      for (int i = 0; i < mask.length; i++) {
+        count += Long.bitCount(mask.bits[i] & classMask[mask.index[i]]);
+      }
+      classCounts[c] = count;
+    }
+    return classCounts;
+  }
+
+  /**
+   * Fills counts[value * numClasses + class] for one feature. The last class
+   * is the value's total minus the other classes, saving one AND per word.
+   */
+  private void fillCounts(Mask mask, int feature, int cardinality) {
+    long[][] masks = valueMasks[feature];
+    int last = numClasses - 1;
+    for (int value = 0; value < cardinality; value++) {
+      long[] valueMask = masks[value];
+      int start = value * numClasses;
+      int total = 0;
+      for (int c = 0; c < last; c++) {
+        counts[start + c] = 0;
+      }
+      for (int i = 0; i < mask.length; i++) {
+        int word = mask.index[i];
+        long bits = mask.bits[i] & valueMask[word];
+        if (bits == 0) {
+          continue;
+        }
+        total += Long.bitCount(bits);
+        for (int c = 0; c < last; c++) {
+          counts[start + c] += Long.bitCount(bits & classMasks[c][word]);
+        }
+      }
+      int others = 0;
+      for (int c = 0; c < last; c++) {
+        others += counts[start + c];
+      }
+      counts[start + last] = total - others;
+    }
+  }
+
+  /**
+   * The rows of one node: its non-zero words and their positions.
+   */
+  private static final class Mask {
+    final int[] index;
+    final long[] bits;
+    final int length;
+    final int size;
+
+    Mask(int[] index, long[] bits, int length, int size) {
+      this.index = index;
+      this.bits = bits;
+      this.length = length;
+      this.size = size;
+    }
+
+    Mask and(long[] other) {
+      int[] childIndex = new int[length];
+      long[] childBits = new long[length];
+      int childLength = 0;
+      int childSize = 0;
+      for (int i = 0; i < length; i++) {
+        long word = bits[i] & other[index[i]];
+        if (word != 0) {
+          childIndex[childLength] = index[i];
+          childBits[childLength++] = word;
+          childSize += Long.bitCount(word);
+        }
+      }
+      return new Mask(childIndex, childBits, childLength, childSize);
+    }
+
+    /**
+     * ANDs this mask with the union of masks[0..last], or with its
+     * complement.
+     */
+    Mask and(long[][] masks, int last, boolean complement) {
+      int[] childIndex = new int[length];
+      long[] childBits = new long[length];
+      int childLength = 0;
+      int childSize = 0;
+      for (int i = 0; i < length; i++) {
+        long union = 0;
+        for (int b = 0; b <= last; b++) {
+          union |= masks[b][index[i]];
+        }
+        long word = bits[i] & (complement ? ~union : union);
+        if (word != 0) {
+          childIndex[childLength] = index[i];
+          childBits[childLength++] = word;
+          childSize += Long.bitCount(word);
+        }
+      }
+      return new Mask(childIndex, childBits, childLength, childSize);
+    }
+
+    int[] toRows() {
+      int[] rows = new int[size];
+      int next = 0;
+      for (int i = 0; i < length; i++) {
+        long word = bits[i];
+        while (word != 0) {
+          rows[next++] = (index[i] << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+        }
+      }
+      return rows;
+    }
+  }
+}
@@ -0,0 +1,426 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.Node;
+import com.stegrandom.core.NumericBins;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A trained decision tree flattened into parallel primitive arrays for fast
+ * inference.
+ * 
+ * Nodes are numbered in breadth-first order, so the top levels that every
+ * prediction visits sit next to each other in memory. For node n:
+ * 
+ * 1) feature[n] is the split feature, or -1 for a leaf
+ * 2) prediction[n] is the class code predicted when traversal stops at n
+ * 3) children[childBase[n] + code] is the child reached by the feature's
+ *    dictionary code, or -1 if that category was not seen at n in training;
+ *    a numeric threshold split fills the slots of its bins with just two
+ *    children, so both kinds of split are traversed the same way
+ * 
+ * Traversal is plain array indexing on dictionary codes and allocates nothing.
+ * Large column-major batches can also be scored a block of rows at a time with
+ * {@link #predictBatch(int[][], int[])}.
+ * 
+ * A compiled tree is immutable, including its dictionaries, so one instance
+ * can serve any number of threads without locking.
+ */
+public final class CompiledTree implements Predictor {
+  public static final int BATCH_BLOCK_SIZE = 1024;
+  public static final int PARALLEL_BATCH_ROWS = 64 * BATCH_BLOCK_SIZE;
+
+  private final int[] feature;
+  private final int[] prediction;
+  private final int[] childBase;
+  private final int[] children;
+  private final int[] cardinality;
+  private final int maxCardinality;
+  private final CategoryDictionary[] featureDictionaries;
+  private final CategoryDictionary labelDictionary;
+  private final String[] labels;
+
+  CompiledTree(int[] feature, int[] prediction, int[] childBase, int[] children,
+      CategoryDictionary[] featureDictionaries, CategoryDictionary labelDictionary) {
+    this.feature = feature;
+    this.prediction = prediction;
+    this.childBase = childBase;
+    this.children = children;
+    this.featureDictionaries = new CategoryDictionary[featureDictionaries.length];
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      this.featureDictionaries[f] = featureDictionaries[f].toImmutable();
+    }
+    this.labelDictionary = labelDictionary.toImmutable();
+    this.cardinality = new int[featureDictionaries.length];
+    int maxCardinality = 0;
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      cardinality[f] = featureDictionaries[f].size();
+      maxCardinality = Math.max(maxCardinality, cardinality[f]);
+    }
+    this.maxCardinality = maxCardinality;
+    this.labels = new String[labelDictionary.size()];
+    for (int c = 0; c < labels.length; c++) {
+      labels[c] = labelDictionary.decode(c);
+    }
+  }
+
+  /**
+   * Flattens a trained node tree.
+   * 
+   * @param root                the root of the trained tree
+   * @param featureDictionaries the dictionaries the tree was trained with
+   * @param labelDictionary     the label dictionary the tree was trained with
+   * @return the compiled tree
+   */
+  public static CompiledTree compile(Node root, CategoryDictionary[] featureDictionaries,
+      CategoryDictionary labelDictionary) {
+    return compile(root, featureDictionaries, labelDictionary, null);
+  }
+
+  /**
+   * Flattens a trained node tree, appending every node to nodesById in the
+   * order of its compiled id when the list is given.
+   */
+  static CompiledTree compile(Node root, CategoryDictionary[] featureDictionaries,
+      CategoryDictionary labelDictionary, List<Node> nodesById) {
+    // First pass: number nodes breadth-first and size the child table
+    ArrayDeque<Node> queue = new ArrayDeque<>();
+    queue.add(root);
+    int numNodes = 0;
+    int numChildSlots = 0;
+    while (!queue.isEmpty()) {
+      Node node = queue.poll();
+      numNodes++;
+      if (!node.isLeaf()) {
+        numChildSlots += featureDictionaries[node.getSplitFeatureIndex()].size();
+        queue.addAll(node.getChildren().values());
+      }
+    }
+
+    int[] feature = new int[numNodes];
+    int[] prediction = new int[numNodes];
+    int[] childBase = new int[numNodes];
+    int[] children = new int[numChildSlots];
+
+    // Second pass: children are enqueued in the same order they are numbered
+    queue.add(root);
+    int nextId = 1;
+    int nextSlot = 0;
+    for (int id = 0; id < numNodes; id++) {
+      Node node = queue.poll();
+      if (nodesById != null) {
+        nodesById.add(node);
+      }
+      prediction[id] = labelDictionary.codeOf(node.getPredictedClass());
+      if (node.isLeaf()) {
+        feature[id] = -1;
+        childBase[id] = -1;
+        continue;
+      }
+
+      int splitFeature = node.getSplitFeatureIndex();
+      CategoryDictionary dictionary = featureDictionaries[splitFeature];
+      feature[id] = splitFeature;
+      childBase[id] = nextSlot;
+      for (int code = 0; code < dictionary.size(); code++) {
+        children[nextSlot + code] = -1;
+      }
+      if (node.isThresholdSplit()) {
+        // Every bin gets a slot: bins up to the threshold lead left, the rest right
+        double threshold = node.getSplitThreshold();
+        int lastLeftBin = ((NumericBins) dictionary).binOf(threshold);
+        int left = nextId++;
+        int right = nextId++;
+        for (int code = 0; code < dictionary.size(); code++) {
+          children[nextSlot + code] = code <= lastLeftBin ? left : right;
+        }
+        queue.add(node.getChildren().get(Node.lessOrEqualLabel(threshold)));
+        queue.add(node.getChildren().get(Node.greaterLabel(threshold)));
+      } else {
+        for (Map.Entry<String, Node> child : node.getChildren().entrySet()) {
+          children[nextSlot + dictionary.codeOf(child.getKey())] = nextId++;
+          queue.add(child.getValue());
+        }
+      }
+      nextSlot += dictionary.size();
+    }
+
+    return new CompiledTree(feature, prediction, childBase, children, featureDictionaries, labelDictionary);
+  }
+
+  /**
+   * Predicts the class code of a pre-encoded row.
+   * 
+   * @param codes the dictionary code of every feature; codes outside the
+   *              dictionary are treated as unseen categories
+   * @return the predicted class code
+   */
+  public int predictCode(int[] codes) {
+    int node = 0;
+    int f;
+    while ((f = feature[node]) >= 0) {
+      int code = codes[f];
+      if (code < 0 || code >= cardinality[f]) {
+        break;
+      }
+      int child = children[childBase[node] + code];
+      if (child < 0) {
+        break;
+      }
+      node = child;
+    }
+    return prediction[node];
+  }
+
+  /**
+   * Predicts the class label of a pre-encoded row.
+   */
+  public String predict(int[] codes) {
+    return labels[predictCode(codes)];
+  }
+
+  /**
+   * Predicts the class label of a raw row. Only the features on the
+   * traversed path are looked up, once each, in their dictionary.
+   */
+  @Override
+  public String predict(String[] row) {
+    int node = 0;
+    int f;
+    while ((f = feature[node]) >= 0) {
+      int code = featureDictionaries[f].codeOf(row[f]);
+      if (code < 0) {
+        break;
+      }
+      int child = children[childBase[node] + code];
+      if (child < 0) {
+        break;
+      }
+      node = child;
+    }
+    return labels[prediction[node]];
+  }
+
+  /**
+   * Encodes a raw row with the training dictionaries, for use with
+   * {@link #predictCode(int[])}. Unseen categories become
+   * {@link CategoryDictionary#UNKNOWN}.
+   * 
+   * @param row  the raw feature values
+   * @param into the array to write the codes into
+   */
+  public void encode(String[] row, int[] into) {
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      into[f] = featureDictionaries[f].codeOf(row[f]);
+    }
+  }
+
+  /**
+   * Encodes column-major raw values with the training dictionaries.
+   * 
+   * @param columns columns[feature][row] raw values
+   * @return columns[feature][row] dictionary codes, unseen categories as
+   *         {@link CategoryDictionary#UNKNOWN}
+   */
+  public int[][] encodeColumns(String[][] columns) {
+    int[][] codes = new int[columns.length][];
+    for (int f = 0; f < columns.length; f++) {
+      CategoryDictionary dictionary = featureDictionaries[f];
+      String[] column = columns[f];
+      int[] encoded = new int[column.length];
+      for (int row = 0; row < column.length; row++) {
+        encoded[row] = dictionary.codeOf(column[row]);
+      }
+      codes[f] = encoded;
+    }
+    return codes;
+  }
+
+  /**
+   * Predicts the class codes of a column-major batch of encoded rows.
+   * 
+   * Rows are scored in blocks of {@link #BATCH_BLOCK_SIZE}. Within a block the
+   * row indices are moved through the tree level by level, and the rows that
+   * reach the same node are grouped together, so each node's split column and
+   * child table are read once per block instead of once per row.
+   * 
+   * @param columns columns[feature][row] dictionary codes
+   * @param out     receives the predicted class code of every row
+   */
+  public void predictBatch(int[][] columns, int[] out) {
+    predictRange(columns, out, 0, out.length, new BatchScratch());
+  }
+
+  /**
+   * Predicts a column-major batch like {@link #predictBatch(int[][], int[])},
+   * splitting batches larger than {@link #PARALLEL_BATCH_ROWS} rows across the
+   * workers of the given pool.
+   * 
+   * @param columns columns[feature][row] dictionary codes
+   * @param out     receives the predicted class code of every row
+   * @param pool    the pool to score row ranges on
+   */
+  public void predictBatch(int[][] columns, int[] out, ForkJoinPool pool) {
+    pool.invoke(new BatchTask(columns, out, 0, out.length));
+  }
+
+  private void predictRange(int[][] columns, int[] out, int from, int to, BatchScratch scratch) {
+    for (int start = from; start < to; start += BATCH_BLOCK_SIZE) {
+      predictBlock(columns, out, start, Math.min(BATCH_BLOCK_SIZE, to - start), scratch);
+    }
+  }
+
+  private void predictBlock(int[][] columns, int[] out, int start, int length, BatchScratch scratch) {
+    int[] rows = scratch.rows;
+    int[] sorted = scratch.sorted;
+    int[] slots = scratch.slots;
+    int[] counts = scratch.counts;
+    int[] queue = scratch.queue;
+    for (int i = 0; i < length; i++) {
+      rows[i] = start + i;
+    }
+
+    // Breadth-first queue of (node, from, to) groups; every node is visited at
+    // most once per block because all rows reaching it are grouped together
+    queue[0] = 0;
+    queue[1] = 0;
+    queue[2] = length;
+    int head = 0;
+    int tail = 3;
+    while (head < tail) {
+      int node = queue[head];
+      int groupFrom = queue[head + 1];
+      int groupTo = queue[head + 2];
+      head += 3;
+
+      int f = feature[node];
+      if (f < 0) {
+        int classCode = prediction[node];
+        for (int i = groupFrom; i < groupTo; i++) {
+          out[rows[i]] = classCode;
+        }
+        continue;
+      }
+
+      // Slot `card` collects rows whose category has no child at this node
+      int card = cardinality[f];
+      int[] column = columns[f];
+      int base = childBase[node];
+      Arrays.fill(counts, 0, card + 1, 0);
+      for (int i = groupFrom; i < groupTo; i++) {
+        int code = column[rows[i]];
+        int slot = code >= 0 && code < card && children[base + code] >= 0 ? code : card;
+        slots[i] = slot;
+        counts[slot]++;
+      }
+
+      int offset = groupFrom;
+      for (int slot = 0; slot <= card; slot++) {
+        int count = counts[slot];
+        counts[slot] = offset;
+        offset += count;
+      }
+      for (int i = groupFrom; i < groupTo; i++) {
+        sorted[counts[slots[i]]++] = rows[i];
+      }
+      System.arraycopy(sorted, groupFrom, rows, groupFrom, groupTo - groupFrom);
+
+      // counts[slot] now holds the end of each slot's group
+      int groupStart = groupFrom;
+      for (int code = 0; code < card; code++) {
+        int groupEnd = counts[code];
+        if (groupEnd > groupStart) {
+          queue[tail] = children[base + code];
+          queue[tail + 1] = groupStart;
+          queue[tail + 2] = groupEnd;
+          tail += 3;
+        }
+        groupStart = groupEnd;
+      }
+      int classCode = prediction[node];
+      for (int i = groupStart; i < groupTo; i++) {
+        out[rows[i]] = classCode;
+      }
+    }
+  }
+
+  /**
+   * Per-thread working arrays for batch scoring, sized once per call.
+   */
+  private class BatchScratch {
+    final int[] rows = new int[BATCH_BLOCK_SIZE];
+    final int[] sorted = new int[BATCH_BLOCK_SIZE];
+    final int[] slots = new int[BATCH_BLOCK_SIZE];
+    final int[] counts = new int[maxCardinality + 1];
+    final int[] queue = new int[3 * feature.length];
+  }
+
+  /**
+   * Scores a row range, halving it until it is small enough for one worker.
+   */
+  private class BatchTask extends RecursiveAction {
+    private final int[][] columns;
+    private final int[] out;
+    private final int from;
+    private final int to;
+
+    BatchTask(int[][] columns, int[] out, int from, int to) {
+      this.columns = columns;
+      this.out = out;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PARALLEL_BATCH_ROWS) {
+        predictRange(columns, out, from, to, new BatchScratch());
+        return;
+      }
+      int mid = from + ((to - from) / 2 / BATCH_BLOCK_SIZE) * BATCH_BLOCK_SIZE;
+      invokeAll(new BatchTask(columns, out, from, mid), new BatchTask(columns, out, mid, to));
+    }
+  }
+
+  int[] getFeatureArray() {
+    return feature;
+  }
+
+  int[] getPredictionArray() {
+    return prediction;
+  }
+
+  int[] getChildBaseArray() {
+    return childBase;
+  }
+
+  int[] getChildrenArray() {
+    return children;
+  }
+
+  public int getNumNodes() {
+    return feature.length;
+  }
+
+  public int getNumFeatures() {
+    return featureDictionaries.length;
+  }
+
+  public CategoryDictionary getFeatureDictionary(int feature) {
+    return featureDictionaries[feature];
+  }
+
+  public CategoryDictionary getLabelDictionary() {
+    return labelDictionary;
+  }
+
+  public String decodeLabel(int classCode) {
+    return labels[classCode];
+  }
+}
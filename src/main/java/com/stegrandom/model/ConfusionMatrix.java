@@ -0,0 +1,361 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A multiclass confusion matrix, built in one pass over actual and predicted
+ * labels, from which every classification metric is read.
+ *
+ * Cell (a, p) counts the samples of actual class a predicted as class p.
+ * Classes are either String labels, coded in first-seen order, or class codes
+ * supplied directly. Per-class precision, recall and F-score, their macro
+ * averages (unweighted mean over classes) and micro averages (pooled over all
+ * samples) are computed from the counts without rescanning the data. A
+ * metric whose denominator is zero, such as the precision of a class that is
+ * never predicted, is reported as 0.
+ *
+ * A matrix is not thread-safe. Large test sets can be evaluated in parallel
+ * by giving each thread its own matrix and merging them, which is what
+ * {@link #evaluate(String[], String[], ForkJoinPool)} does.
+ */
+public class ConfusionMatrix {
+  public static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+  private final CategoryDictionary labels; // null when built from class codes
+  private long[][] counts = new long[0][0]; // counts[actual][predicted]
+  private long total;
+
+  /**
+   * Creates an empty matrix over String labels.
+   */
+  public ConfusionMatrix() {
+    this.labels = new CategoryDictionary();
+  }
+
+  /**
+   * Creates an empty matrix over class codes 0..numClasses-1. It grows if a
+   * larger code is added.
+   */
+  public ConfusionMatrix(int numClasses) {
+    this.labels = null;
+    ensureCapacity(numClasses);
+  }
+
+  /**
+   * Builds the matrix of two label arrays in one sequential pass.
+   */
+  public static ConfusionMatrix evaluate(String[] actual, String[] predicted) {
+    ConfusionMatrix matrix = new ConfusionMatrix();
+    matrix.addAll(actual, predicted, 0, checkLengths(actual, predicted));
+    return matrix;
+  }
+
+  /**
+   * Builds the matrix of two label arrays, counting chunks of
+   * {@link #PARALLEL_CHUNK_SIZE} samples concurrently and merging the results.
+   */
+  public static ConfusionMatrix evaluate(String[] actual, String[] predicted, ForkJoinPool pool) {
+    int length = checkLengths(actual, predicted);
+    return pool.invoke(new EvaluateTask(actual, predicted, 0, length));
+  }
+
+  /**
+   * Builds the matrix of two class-code arrays in one sequential pass.
+   */
+  public static ConfusionMatrix evaluate(int[] actual, int[] predicted, int numClasses) {
+    if (actual.length != predicted.length) {
+      throw new IllegalArgumentException("Actual and predicted must have the same length");
+    }
+    ConfusionMatrix matrix = new ConfusionMatrix(numClasses);
+    for (int i = 0; i < actual.length; i++) {
+      matrix.add(actual[i], predicted[i]);
+    }
+    return matrix;
+  }
+
+  private static int checkLengths(String[] actual, String[] predicted) {
+    if (actual.length != predicted.length) {
+      throw new IllegalArgumentException("Actual and predicted must have the same length");
+    }
+    return actual.length;
+  }
+
+  public void add(String actual, String predicted) {
+    checkLabeled();
+    add(labels.encode(actual), labels.encode(predicted));
+  }
+
+  public void add(int actualCode, int predictedCode) {
+    ensureCapacity(Math.max(actualCode, predictedCode) + 1);
+    counts[actualCode][predictedCode]++;
+    total++;
+  }
+
+  public void addAll(String[] actual, String[] predicted, int from, int to) {
+    for (int i = from; i < to; i++) {
+      add(actual[i], predicted[i]);
+    }
+  }
+
+  /**
+   * Adds the counts of another matrix to this one. Labeled matrices are
+   * merged by label, so their codes need not agree.
+   */
+  public void merge(ConfusionMatrix other) {
+    if ((labels == null) != (other.labels == null)) {
+      throw new IllegalArgumentException("Cannot merge a labeled matrix with a class-code matrix");
+    }
+    int otherClasses = other.getNumClasses();
+    int[] remap = new int[otherClasses];
+    for (int c = 0; c < otherClasses; c++) {
+      remap[c] = labels != null ? labels.encode(other.labels.decode(c)) : c;
+    }
+    ensureCapacity(otherClasses == 0 ? 0 : max(remap) + 1);
+    for (int a = 0; a < otherClasses; a++) {
+      for (int p = 0; p < otherClasses; p++) {
+        counts[remap[a]][remap[p]] += other.counts[a][p];
+      }
+    }
+    total += other.total;
+  }
+
+  private static int max(int[] values) {
+    int max = values[0];
+    for (int value : values) {
+      max = Math.max(max, value);
+    }
+    return max;
+  }
+
+  private void ensureCapacity(int numClasses) {
+    if (numClasses <= counts.length) {
+      return;
+    }
+    long[][] grown = new long[numClasses][numClasses];
+    for (int a = 0; a < counts.length; a++) {
+      System.arraycopy(counts[a], 0, grown[a], 0, counts.length);
+    }
+    counts = grown;
+  }
+
+  private void checkLabeled() {
+    if (labels == null) {
+      throw new IllegalStateException("This matrix counts class codes, not labels");
+    }
+  }
+
+  /**
+   * @return the code of a label, or -1 if it never occurred
+   */
+  private int codeOf(String label) {
+    checkLabeled();
+    return labels.codeOf(label);
+  }
+
+  public int getNumClasses() {
+    return labels != null ? labels.size() : counts.length;
+  }
+
+  /**
+   * @return the labels in code order
+   */
+  public List<String> getLabels() {
+    checkLabeled();
+    List<String> result = new ArrayList<>();
+    for (int c = 0; c < labels.size(); c++) {
+      result.add(labels.decode(c));
+    }
+    return result;
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public long getCount(int actualCode, int predictedCode) {
+    return actualCode < counts.length && predictedCode < counts.length ? counts[actualCode][predictedCode] : 0;
+  }
+
+  public long getCount(String actual, String predicted) {
+    int a = codeOf(actual);
+    int p = codeOf(predicted);
+    return a < 0 || p < 0 ? 0 : getCount(a, p);
+  }
+
+  public double getAccuracy() {
+    long correct = 0;
+    for (int c = 0; c < counts.length; c++) {
+      correct += counts[c][c];
+    }
+    return ratio(correct, total);
+  }
+
+  public double getPrecision(int classCode) {
+    return ratio(getCount(classCode, classCode), predictedTotal(classCode));
+  }
+
+  public double getRecall(int classCode) {
+    return ratio(getCount(classCode, classCode), actualTotal(classCode));
+  }
+
+  public double getFScore(int classCode) {
+    return fScore(getPrecision(classCode), getRecall(classCode));
+  }
+
+  public double getPrecision(String label) {
+    int code = codeOf(label);
+    return code < 0 ? 0.0 : getPrecision(code);
+  }
+
+  public double getRecall(String label) {
+    int code = codeOf(label);
+    return code < 0 ? 0.0 : getRecall(code);
+  }
+
+  public double getFScore(String label) {
+    int code = codeOf(label);
+    return code < 0 ? 0.0 : getFScore(code);
+  }
+
+  public double getMacroPrecision() {
+    double sum = 0.0;
+    int numClasses = getNumClasses();
+    for (int c = 0; c < numClasses; c++) {
+      sum += getPrecision(c);
+    }
+    return numClasses == 0 ? 0.0 : sum / numClasses;
+  }
+
+  public double getMacroRecall() {
+    double sum = 0.0;
+    int numClasses = getNumClasses();
+    for (int c = 0; c < numClasses; c++) {
+      sum += getRecall(c);
+    }
+    return numClasses == 0 ? 0.0 : sum / numClasses;
+  }
+
+  /**
+   * @return the mean of the per-class F-scores
+   */
+  public double getMacroFScore() {
+    double sum = 0.0;
+    int numClasses = getNumClasses();
+    for (int c = 0; c < numClasses; c++) {
+      sum += getFScore(c);
+    }
+    return numClasses == 0 ? 0.0 : sum / numClasses;
+  }
+
+  /**
+   * With one label per sample, pooled true positives over pooled predictions
+   * (or over pooled actuals) are both the accuracy, so micro precision,
+   * recall and F-score are all equal to it.
+   */
+  public double getMicroPrecision() {
+    return getAccuracy();
+  }
+
+  public double getMicroRecall() {
+    return getAccuracy();
+  }
+
+  public double getMicroFScore() {
+    return getAccuracy();
+  }
+
+  private long predictedTotal(int classCode) {
+    long sum = 0;
+    for (int a = 0; a < counts.length && classCode < counts.length; a++) {
+      sum += counts[a][classCode];
+    }
+    return sum;
+  }
+
+  private long actualTotal(int classCode) {
+    long sum = 0;
+    for (int p = 0; p < counts.length && classCode < counts.length; p++) {
+      sum += counts[classCode][p];
+    }
+    return sum;
+  }
+
+  private static double ratio(long numerator, long denominator) {
+    return denominator == 0 ? 0.0 : (double) numerator / denominator;
+  }
+
+  private static double fScore(double precision, double recall) {
+    return precision + recall == 0 ? 0.0 : 2 * precision * recall / (precision + recall);
+  }
+
+  /**
+   * Formats the matrix with one row per actual class.
+   */
+  @Override
+  public String toString() {
+    int numClasses = getNumClasses();
+    String[] names = new String[numClasses];
+    int width = "actual\\predicted".length();
+    for (int c = 0; c < numClasses; c++) {
+      names[c] = labels != null ? labels.decode(c) : String.valueOf(c);
+      width = Math.max(width, names[c].length());
+      for (int p = 0; p < numClasses; p++) {
+        width = Math.max(width, String.valueOf(counts[c][p]).length());
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    String cell = "%" + (width + 1) + "s";
+    builder.append(String.format(cell, "actual\\predicted"));
+    for (int p = 0; p < numClasses; p++) {
+      builder.append(String.format(cell, names[p]));
+    }
+    builder.append(System.lineSeparator());
+    for (int a = 0; a < numClasses; a++) {
+      builder.append(String.format(cell, names[a]));
+      for (int p = 0; p < numClasses; p++) {
+        builder.append(String.format(cell, counts[a][p]));
+      }
+      builder.append(System.lineSeparator());
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Counts a range of samples, halving it down to one chunk per task, and
+   * merges the partial matrices on the way back up.
+   */
+  private static class EvaluateTask extends RecursiveTask<ConfusionMatrix> {
+    private final String[] actual;
+    private final String[] predicted;
+    private final int from;
+    private final int to;
+
+    EvaluateTask(String[] actual, String[] predicted, int from, int to) {
+      this.actual = actual;
+      this.predicted = predicted;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected ConfusionMatrix compute() {
+      if (to - from <= PARALLEL_CHUNK_SIZE) {
+        ConfusionMatrix matrix = new ConfusionMatrix();
+        matrix.addAll(actual, predicted, from, to);
+        return matrix;
+      }
+      int mid = (from + to) >>> 1;
+      EvaluateTask right = new EvaluateTask(actual, predicted, mid, to);
+      right.fork();
+      ConfusionMatrix matrix = new EvaluateTask(actual, predicted, from, mid).compute();
+      matrix.merge(right.join());
+      return matrix;
+    }
+  }
+}
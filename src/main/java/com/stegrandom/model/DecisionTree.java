@@ -1,16 +1,28 @@
 package com.stegrandom.model;
 
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
 import com.stegrandom.core.Node;
+import com.stegrandom.core.NumericBins;
+import com.stegrandom.core.RowSlice;
 import com.stegrandom.core.TrainingConfig;
-import com.stegrandom.core.Dataset;
+import com.stegrandom.utils.ColumnStore;
+import com.stegrandom.utils.TreeVisualizer;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A Decision Tree classifier implementation for categorical features.
  * This implementation uses information gain as the splitting criterion and
  * includes
  * various pre-pruning strategies to prevent overfitting.
+ * Numeric features, coded as quantile bins by {@link NumericBins}, are split
+ * in two at the best bin threshold instead of once per value.
  * 
  * 
  * The tree is built recursively, with each node representing a split on a
@@ -33,9 +45,39 @@ import java.util.*;
  * @version 1.0
  */
 public class DecisionTree {
+  public static final int DEFAULT_PARALLEL_BUILD_THRESHOLD = 1024;
+
+  // Approximate retained size of a node for the heap budget: the Node, its
+  // class counts apart from the 4 bytes per class, and its entry in the
+  // parent's children map
+  private static final long NODE_BYTES = 160;
+  // Gains up to this are rounding error of a split that separates nothing
+  private static final double MIN_GAIN = 1e-9;
+
   private Node root;
   private TrainingConfig config;
+  private TrainingConfig limits;
+  private EncodedDataset data;
+  private RowPartitioner partitioner;
+  private SplitFinder splitFinder;
   private String[] featureNames;
+  private CategoryDictionary[] featureDictionaries;
+  private CategoryDictionary labelDictionary;
+  private CompiledTree predictor;
+  private boolean retainSamples;
+  private boolean compileOnFit = true;
+  private ForkJoinPool splitPool;
+  private int parallelSplitThreshold = SplitFinder.DEFAULT_PARALLEL_THRESHOLD;
+  private ForkJoinPool buildPool;
+  private int parallelBuildThreshold = DEFAULT_PARALLEL_BUILD_THRESHOLD;
+  private int featuresPerSplit;
+  private long featureSeed;
+  private boolean bitsetBackend;
+  private boolean collectReport;
+  private TrainingReport report;
+  private TrainingConfig.Budget exhaustedBudget;
+  // The most children a split may create; only lowered by budgeted fits
+  private int nodeAllowance = Integer.MAX_VALUE;
 
   public DecisionTree() {
   }
@@ -46,6 +88,17 @@ public class DecisionTree {
 
   public void setRoot(Node root) {
     this.root = root;
+    this.predictor = null;
+  }
+
+  /**
+   * Returns the immutable predictor produced by the last call to fit. It is
+   * safe to share between any number of threads without synchronization.
+   * 
+   * @return the trained predictor, or null if the tree has not been fit
+   */
+  public Predictor getPredictor() {
+    return predictor;
   }
 
   /**
@@ -57,6 +110,148 @@ public class DecisionTree {
     this.featureNames = names;
   }
 
+  /**
+   * Debug option: keep the training rows that reached each node so they can be
+   * inspected through {@link Node#getDataPoints()}. Off by default, in which
+   * case a trained tree only holds per-node class counts and no training data.
+   * 
+   * @param retainSamples whether nodes should keep their training rows
+   */
+  public void setRetainSamples(boolean retainSamples) {
+    this.retainSamples = retainSamples;
+  }
+
+  /**
+   * Lets callers that compile the tree themselves skip compiling the
+   * predictor at the end of each fit. Until one is compiled, the tree
+   * predicts by walking its nodes.
+   * 
+   * @param compileOnFit whether fit should compile the predictor
+   */
+  void setCompileOnFit(boolean compileOnFit) {
+    this.compileOnFit = compileOnFit;
+  }
+
+  /**
+   * Evaluate the candidate features of large nodes in parallel on the given
+   * pool. The resulting tree is identical to a sequential fit.
+   * 
+   * @param pool the pool to score features on, or null for sequential training
+   */
+  public void setSplitPool(ForkJoinPool pool) {
+    this.splitPool = pool;
+  }
+
+  /**
+   * Set the minimum number of rows a node needs before its features are
+   * evaluated in parallel. Smaller nodes are always evaluated sequentially.
+   * 
+   * @param minRows the row threshold for parallel feature evaluation
+   */
+  public void setParallelSplitThreshold(int minRows) {
+    this.parallelSplitThreshold = minRows;
+  }
+
+  /**
+   * Build sibling subtrees concurrently on the given pool using work
+   * stealing. The resulting tree is identical to a sequential fit. The same
+   * pool may also be passed to {@link #setSplitPool}.
+   * 
+   * Fits with a budget ({@link TrainingConfig#hasBudget()}) grow the tree on
+   * the calling thread and do not use this pool.
+   * 
+   * @param pool the pool to build subtrees on, or null for sequential training
+   */
+  public void setBuildPool(ForkJoinPool pool) {
+    this.buildPool = pool;
+  }
+
+  /**
+   * Set the minimum number of rows a subtree needs to be built as its own
+   * parallel task. Smaller subtrees are built sequentially by their parent's task.
+   * 
+   * @param minRows the row threshold for forking a subtree
+   */
+  public void setParallelBuildThreshold(int minRows) {
+    this.parallelBuildThreshold = minRows;
+  }
+
+  /**
+   * Only consider a random subset of the features at each node, as in a
+   * random forest. The subset of a node is drawn from a generator seeded by
+   * the seed and the node's position, so the tree is reproducible and does
+   * not depend on the order in which nodes are built.
+   * 
+   * @param featuresPerSplit the number of candidate features per node, or 0
+   *                         to consider every feature
+   * @param seed             the seed of the feature sampling
+   */
+  public void setFeatureSubsampling(int featuresPerSplit, long seed) {
+    this.featuresPerSplit = featuresPerSplit;
+    this.featureSeed = seed;
+  }
+
+  /**
+   * Set the pre-pruning limits. Limits the config leaves unset, and all of
+   * them when the config is null, are derived from each training set.
+   * 
+   * @param limits the limits to train with, or null to derive them all
+   */
+  public void setTrainingConfig(TrainingConfig limits) {
+    this.limits = limits;
+  }
+
+  /**
+   * Returns the limits the last fit was trained with, including the derived
+   * ones.
+   * 
+   * @return the resolved limits, or null if the tree has not been fit
+   */
+  public TrainingConfig getTrainingConfig() {
+    return config;
+  }
+
+  /**
+   * Returns the budget that stopped the last fit early. Its tree is valid,
+   * but nodes that were still open when the budget ran out are leaves.
+   * 
+   * @return the exhausted budget, or null if the fit ran within its budgets
+   */
+  public TrainingConfig.Budget getExhaustedBudget() {
+    return exhaustedBudget;
+  }
+
+  /**
+   * Train with bitsets instead of row-index arrays: every count is a
+   * popcount over ANDed row masks, which suits wide tables of low-cardinality
+   * features. The tree is the same as with the default builder. The backend
+   * is used by fits over all rows of a dataset and does not support feature
+   * subsampling.
+   * 
+   * @param bitsetBackend true to train with bitsets
+   */
+  public void setBitsetBackend(boolean bitsetBackend) {
+    this.bitsetBackend = bitsetBackend;
+  }
+
+  /**
+   * Collect a {@link TrainingReport} during each fit: time and allocations
+   * per phase, nodes and leaves per depth, and why leaves stopped splitting.
+   * Off by default, in which case training does no measuring at all.
+   * 
+   * @param collectReport whether fits should collect a report
+   */
+  public void setCollectReport(boolean collectReport) {
+    this.collectReport = collectReport;
+  }
+
+  /**
+   * @return the report of the last fit, or null if it collected none
+   */
+  public TrainingReport getTrainingReport() {
+    return report;
+  }
+
   /**
    * Fits the decision tree to the training data.
    * This is the main method to train the decision tree classifier.
@@ -68,16 +263,208 @@ public class DecisionTree {
    * @throws IllegalArgumentException if input data is null or invalid
    */
   public void fit(String[][] features, String[] target, int depth) {
+    long startNanos = System.nanoTime();
     checkNullValues(features, target);
+    TrainingReport report = collectReport ? new TrainingReport() : null;
+    TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.ENCODE) : null;
+    EncodedDataset data = EncodedDataset.encode(features, target);
+    if (probe != null) {
+      probe.end();
+    }
+    fit(data, depth, report, startNanos);
+  }
 
-    // Set the root node's dataset first
-    root = new Node(new Dataset(features, target));
+  /**
+   * Fits the decision tree to already encoded training data.
+   *
+   * @param data  the dictionary-encoded training data
+   * @param depth the initial depth to start training (typically 0)
+   */
+  public void fit(EncodedDataset data, int depth) {
+    fit(data, depth, collectReport ? new TrainingReport() : null, System.nanoTime());
+  }
+
+  private void fit(EncodedDataset data, int depth, TrainingReport report, long startNanos) {
+    if (bitsetBackend) {
+      fitBitsets(data, depth, report);
+      return;
+    }
+    fit(data, new RowPartitioner(data.getNumRows()), depth, report, startNanos);
+  }
+
+  private void fitBitsets(EncodedDataset data, int depth, TrainingReport report) {
+    if (featuresPerSplit > 0 && featuresPerSplit < data.getNumFeatures()) {
+      throw new IllegalStateException("The bitset backend does not support feature subsampling");
+    }
+    if (limits != null && limits.hasBudget()) {
+      throw new IllegalStateException("The bitset backend does not support training budgets");
+    }
+    TreeEvents.FitCompleted event = new TreeEvents.FitCompleted();
+    event.begin();
+    this.report = report;
+    this.exhaustedBudget = null;
+    BitsetTrainer trainer = new BitsetTrainer(data, limits, retainSamples, report);
+    TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.BUILD) : null;
+    root = trainer.train(depth);
+    if (probe != null) {
+      probe.end();
+    }
+    this.config = trainer.getConfig();
+    this.featureDictionaries = new CategoryDictionary[data.getNumFeatures()];
+    for (int feature = 0; feature < featureDictionaries.length; feature++) {
+      featureDictionaries[feature] = data.getFeatureDictionary(feature);
+    }
+    this.labelDictionary = data.getLabelDictionary();
+    compilePredictor();
+    commitFit(event, "bitset", data.getNumRows(), data.getNumFeatures());
+  }
+
+  /**
+   * Fits the decision tree to a sample of the rows of an encoded dataset,
+   * such as a bootstrap sample. The sample is given as row indices, which may
+   * repeat, so the dataset itself is shared rather than copied.
+   * 
+   * @param data  the dictionary-encoded training data
+   * @param rows  the indices of the sampled rows; the array is reordered in place
+   * @param depth the initial depth to start training (typically 0)
+   */
+  public void fit(EncodedDataset data, int[] rows, int depth) {
+    fit(data, new RowPartitioner(rows), depth, collectReport ? new TrainingReport() : null,
+        System.nanoTime());
+  }
+
+  /**
+   * @param startNanos when the public fit was called, the origin of the time
+   *                   budget, so that encoding String data counts against it
+   */
+  private void fit(EncodedDataset data, RowPartitioner partitioner, int depth, TrainingReport report,
+      long startNanos) {
+    TreeEvents.FitCompleted event = new TreeEvents.FitCompleted();
+    event.begin();
+    int numRows = partitioner.size();
+    this.report = report;
+    this.exhaustedBudget = null;
+    this.data = data;
+    this.partitioner = partitioner;
+    this.splitFinder = new SplitFinder(data, splitPool, parallelSplitThreshold);
+
+    root = new Node();
+    this.featureDictionaries = new CategoryDictionary[data.getNumFeatures()];
+    for (int feature = 0; feature < featureDictionaries.length; feature++) {
+      featureDictionaries[feature] = data.getFeatureDictionary(feature);
+    }
+    this.labelDictionary = data.getLabelDictionary();
 
     // Calculate initial entropy once
-    double initialEntropy = InformationTheoryMetrics.calculateEntropy(features, target);
-    this.config = new TrainingConfig(initialEntropy, features.length);
+    int[] classCounts = new RowSlice(data, partitioner.getRows(), 0, numRows).countClasses();
+    double initialEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(
+        classCounts, 0, data.getNumClasses(), numRows);
+    this.config = resolveConfig(limits, initialEntropy, numRows);
+
+    // Histograms are kept when every node scores all features; with feature
+    // subsampling, scanning only the sampled features is cheaper
+    int[] rootHistograms = null;
+    if ((featuresPerSplit <= 0 || featuresPerSplit >= data.getNumFeatures()) && data.getNumFeatures() > 0) {
+      TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.HISTOGRAMS) : null;
+      rootHistograms = splitFinder.buildHistograms(new RowSlice(data, partitioner.getRows(), 0, numRows));
+      if (probe != null) {
+        probe.end();
+        report.addRowsScanned(numRows);
+      }
+    }
+
     // Start the recursive process
-    fit(root, features, target, depth);
+    if (config.hasBudget()) {
+      fitWithinBudget(0, numRows, depth, rootHistograms, startNanos);
+    } else if (buildPool != null) {
+      buildPool.invoke(new BuildTask(root, 0, numRows, depth, rootHistograms));
+    } else {
+      fit(root, 0, numRows, depth, rootHistograms);
+    }
+
+    // The finished tree only needs its per-node summaries
+    this.data = null;
+    this.partitioner = null;
+    this.splitFinder = null;
+
+    // Every node already carries its fallback class, so the predictor never
+    // needs to write to the model
+    compilePredictor();
+    commitFit(event, "rows", numRows, data.getNumFeatures());
+  }
+
+  private void commitFit(TreeEvents.FitCompleted event, String backend, long numRows, int numFeatures) {
+    if (event.shouldCommit()) {
+      event.backend = backend;
+      event.rows = numRows;
+      event.features = numFeatures;
+      event.nodes = predictor != null ? predictor.getNumNodes() : countNodes(root);
+      event.exhaustedBudget = exhaustedBudget == null ? null : exhaustedBudget.name();
+      event.commit();
+    }
+  }
+
+  /**
+   * Compiles the predictor of a finished fit and completes its report.
+   */
+  private void compilePredictor() {
+    this.predictor = null;
+    if (compileOnFit) {
+      TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.COMPILE) : null;
+      this.predictor = compile();
+      if (probe != null) {
+        probe.end();
+      }
+    }
+    if (report != null) {
+      report.recordOutcome(config, exhaustedBudget);
+      report.finish();
+    }
+  }
+
+  private static int countNodes(Node node) {
+    int count = 1;
+    for (Node child : node.getChildren().values()) {
+      count += countNodes(child);
+    }
+    return count;
+  }
+
+  /**
+   * Fits the decision tree to a dataset stored on disk, for training sets
+   * that do not fit in the heap. The tree is grown level by level with
+   * sequential passes over the column files and is identical to the tree
+   * {@link #fit(EncodedDataset, int)} builds from the same data.
+   * 
+   * @param store        the on-disk training data
+   * @param memoryBudget the approximate number of bytes the per-level counts
+   *                     and read buffers may use
+   * @param depth        the initial depth to start training (typically 0)
+   * @throws IOException if the store cannot be read, or its directory cannot
+   *                     hold the temporary node-assignment file
+   */
+  public void fitOutOfCore(ColumnStore store, long memoryBudget, int depth) throws IOException {
+    if (limits != null && limits.hasBudget()) {
+      throw new IllegalStateException("Out-of-core training does not support training budgets");
+    }
+    TreeEvents.FitCompleted event = new TreeEvents.FitCompleted();
+    event.begin();
+    this.report = collectReport ? new TrainingReport() : null;
+    this.exhaustedBudget = null;
+    OutOfCoreTrainer trainer = new OutOfCoreTrainer(store, memoryBudget, limits, report);
+    TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.BUILD) : null;
+    root = trainer.train(depth);
+    if (probe != null) {
+      probe.end();
+    }
+    this.config = trainer.getConfig();
+    this.featureDictionaries = new CategoryDictionary[store.getNumFeatures()];
+    for (int feature = 0; feature < featureDictionaries.length; feature++) {
+      featureDictionaries[feature] = store.getFeatureDictionary(feature);
+    }
+    this.labelDictionary = store.getLabelDictionary();
+    compilePredictor();
+    commitFit(event, "out-of-core", store.getNumRows(), store.getNumFeatures());
   }
 
   /**
@@ -119,170 +506,482 @@ public class DecisionTree {
    * This method handles the actual tree construction by recursively splitting
    * the data based on the feature that provides the maximum information gain.
    * 
-   * @param node     the current Node in the tree being processed
-   * @param features the feature matrix for the current split
-   * @param target   the target array for the current split
-   * @param depth    the current depth in the tree
+   * @param node       the current Node in the tree being processed
+   * @param from       start of the node's range in the shared row-index array
+   * @param to         end of the node's range, exclusive
+   * @param depth      the current depth in the tree
+   * @param histograms the node's histograms, or null to scan its rows
    */
-  public void fit(Node node, String[][] features, String[] target, int depth) {
-    // Store the dataPoints in any case
-    node.setDataPoints(new Dataset(features, target));
-
-    // Find the best split
-    int bestFeatureIndex = findBestSplit(features, target);
-
-    if (shouldStopSplitting(features, target, bestFeatureIndex, depth)) {
-      String majorityClass = getMajorityClass(target);
-      node.setPredictedClass(majorityClass);
+  private void fit(Node node, int from, int to, int depth, int[] histograms) {
+    Children children = expand(node, from, to, depth, histograms);
+    if (children == null) {
       return;
     }
 
-    // Get unique values of the best feature
-    Set<String> uniqueValues = getUniqueValues(features, bestFeatureIndex);
-    node.setSplitFeatureIndex(bestFeatureIndex);
+    for (int i = 0; i < children.nodes.length; i++) {
+      // Recursive call to continue growing the tree
+      fit(children.nodes[i], children.bounds[i], children.bounds[i + 1], depth + 1,
+          children.takeHistograms(i));
+    }
+  }
 
-    for (String value : uniqueValues) {
-      Dataset split = splitData(features, target, bestFeatureIndex, value);
-      if (split.getX().length > 0) {
-        Node childNode = new Node(split);
-        node.getChildren().put(value, childNode);
+  /**
+   * Grows the tree within the budgets of the config, from a queue of open
+   * nodes that always expands the one with the most rows next, ties going to
+   * the oldest. Splitting the largest nodes first makes the tree an
+   * interrupted fit leaves behind the most useful one for its size.
+   * 
+   * The time and heap budgets are checked before each expansion. Once one
+   * has run out, every open node becomes a leaf predicting its majority
+   * class, which takes one more pass over their rows. The heap is estimated
+   * as {@link #NODE_BYTES} plus the class counts per node, plus the
+   * histograms held by open nodes. A split that would take the tree past its
+   * node budget is refused in {@link #expand}, and its node becomes a leaf.
+   * 
+   * @param startNanos when the fit started, the origin of the time budget
+   */
+  private void fitWithinBudget(int from, int to, int depth, int[] rootHistograms, long startNanos) {
+    long histogramBytes = 4L * splitFinder.getHistogramSize();
+    long nodeBytes = NODE_BYTES + 4L * data.getNumClasses();
+    long heapBytes = nodeBytes + (rootHistograms != null ? histogramBytes : 0);
+    int numNodes = 1;
+    long sequence = 0;
+    PriorityQueue<OpenNode> open = new PriorityQueue<>();
+    open.add(new OpenNode(root, from, to, depth, rootHistograms, sequence++));
+
+    try {
+      while (!open.isEmpty()) {
+        TrainingConfig.Budget budget = null;
+        if (System.nanoTime() - startNanos >= config.getTimeBudgetNanos()) {
+          budget = TrainingConfig.Budget.TIME;
+        } else if (heapBytes >= config.getHeapBudgetBytes()) {
+          budget = TrainingConfig.Budget.HEAP;
+        }
+        if (budget != null) {
+          if (exhaustedBudget == null) {
+            exhaustedBudget = budget;
+          }
+          break;
+        }
 
-        // Recursive call to continue growing the tree
-        fit(childNode, split.getX(), split.getY(), depth + 1);
+        OpenNode next = open.poll();
+        if (next.histograms != null) {
+          heapBytes -= histogramBytes;
+        }
+        nodeAllowance = config.getMaxNodes() - numNodes;
+        Children children = expand(next.node, next.from, next.to, next.depth, next.histograms);
+        if (children == null) {
+          continue;
+        }
+        numNodes += children.nodes.length;
+        heapBytes += children.nodes.length * nodeBytes;
+        for (int i = 0; i < children.nodes.length; i++) {
+          int[] histograms = children.takeHistograms(i);
+          if (histograms != null) {
+            heapBytes += histogramBytes;
+          }
+          open.add(new OpenNode(children.nodes[i], children.bounds[i], children.bounds[i + 1],
+              next.depth + 1, histograms, sequence++));
+        }
       }
+    } finally {
+      nodeAllowance = Integer.MAX_VALUE;
+    }
+
+    for (OpenNode node : open) {
+      finishAsLeaf(node);
+    }
+  }
+
+  /**
+   * Makes a node that was never expanded a leaf, with the class counts and
+   * majority class of its rows.
+   */
+  private void finishAsLeaf(OpenNode open) {
+    RowSlice rows = new RowSlice(data, partitioner.getRows(), open.from, open.to);
+    if (retainSamples) {
+      open.node.setDataPoints(rows);
+    }
+    int[] classCounts = rows.countClasses();
+    open.node.setClassCounts(classCounts);
+    open.node.setPredictedClass(labelDictionary.decode(Split.majorityClass(classCounts)));
+    if (report != null) {
+      report.recordNode(open.depth);
+      report.recordLeaf(open.depth, TrainingReport.StopReason.BUDGET);
+      report.addRowsScanned(open.to - open.from);
     }
   }
 
   /**
-   * Determines whether to stop splitting based on various criteria.
+   * A node waiting to be expanded by a budgeted fit, ordered largest first.
+   */
+  private static class OpenNode implements Comparable<OpenNode> {
+    final Node node;
+    final int from;
+    final int to;
+    final int depth;
+    final int[] histograms;
+    final long sequence;
+
+    OpenNode(Node node, int from, int to, int depth, int[] histograms, long sequence) {
+      this.node = node;
+      this.from = from;
+      this.to = to;
+      this.depth = depth;
+      this.histograms = histograms;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(OpenNode other) {
+      int bySize = Integer.compare(other.to - other.from, to - from);
+      return bySize != 0 ? bySize : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /**
+   * Evaluates one node and, unless a stopping rule applies, splits it.
+   * The node's rows are partitioned in place so that every child is a
+   * contiguous sub-range of the parent's range in the shared row-index array.
    * 
-   * @param features         the current feature matrix
-   * @param target           the current target array
-   * @param bestFeatureIndex the index of the best feature for splitting
-   * @param depth            the current depth in the tree
-   * @return true if splitting should stop, false otherwise
+   * Every node records its class counts and majority class, which is also
+   * the fallback prediction for categories that were not seen in training.
+   * The children map is fully built here and attached in one step, before
+   * any child is grown, so parallel builds never write to a shared map.
+   * 
+   * @param node       the node to evaluate
+   * @param from       start of the node's range in the shared row-index array
+   * @param to         end of the node's range, exclusive
+   * @param depth      the depth of the node
+   * @param histograms the node's histograms, or null to scan its rows
+   * @return the new children and their row ranges, or null for a leaf
    */
-  private boolean shouldStopSplitting(String[][] features, String[] target, int bestFeatureIndex, int depth) {
-    // First, check for the pure subset case
-    if (isPure(target)) {
-      return true;
+  private Children expand(Node node, int from, int to, int depth, int[] histograms) {
+    TreeEvents.NodeSplit event = new TreeEvents.NodeSplit();
+    event.begin();
+    RowSlice rows = new RowSlice(data, partitioner.getRows(), from, to);
+    if (retainSamples) {
+      node.setDataPoints(rows);
     }
 
-    // Check depth and sample size against pre-configured limits
-    // These limits are calcualted in the TrainingConfig class
-    if (depth >= config.getMaxDepthAllowed() ||
-        features.length < config.getMinSamplesAllowed()) {
-      return true;
+    // Find the best split, along with the class counts of this node
+    TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.SPLIT_SEARCH) : null;
+    Split split = histograms != null
+        ? splitFinder.findBestSplitFromHistograms(rows, histograms)
+        : splitFinder.findBestSplit(rows, sampleFeatures(from, depth));
+    if (probe != null) {
+      probe.end();
+      report.recordNode(depth);
+      if (histograms == null) {
+        report.addRowsScanned(to - from);
+      }
+    }
+    int bestFeatureIndex = split.getFeatureIndex();
+    node.setClassCounts(split.getClassCounts());
+    node.setPredictedClass(data.getLabelDictionary().decode(split.getMajorityClass()));
+
+    TrainingReport.StopReason stopReason = stopReason(split, depth, config);
+    if (stopReason != null) {
+      if (report != null) {
+        report.recordLeaf(depth, stopReason);
+      }
+      commitSplit(event, depth, to - from, split, stopReason);
+      return null;
+    }
+
+    // Group the rows by their value of the best feature, one range per child
+    CategoryDictionary dictionary = data.getFeatureDictionary(bestFeatureIndex);
+    probe = report != null ? report.begin(TrainingReport.Phase.PARTITION) : null;
+    int[] offsets = partitioner.partition(data.getColumn(bestFeatureIndex), dictionary.size(),
+        from, to);
+    if (probe != null) {
+      probe.end();
+      report.addRowsPartitioned(to - from);
+    }
+
+    int numChildren = 2;
+    if (!split.isThresholdSplit()) {
+      numChildren = 0;
+      for (int value = 0; value < dictionary.size(); value++) {
+        if (offsets[value + 1] > offsets[value]) {
+          numChildren++;
+        }
+      }
     }
+    if (numChildren > nodeAllowance) {
+      // The split would take the tree past its node budget
+      if (exhaustedBudget == null) {
+        exhaustedBudget = TrainingConfig.Budget.NODES;
+      }
+      if (report != null) {
+        report.recordLeaf(depth, TrainingReport.StopReason.BUDGET);
+      }
+      commitSplit(event, depth, to - from, split, TrainingReport.StopReason.BUDGET);
+      return null;
+    }
+    node.setInformationGain(split.getInformationGain());
+    node.setSplitFeatureIndex(bestFeatureIndex);
 
-    // Calculate entropy decrease to see if this split is worthwhile
-    double currentEntropy = InformationTheoryMetrics.calculateEntropy(features, target);
-    double entropyAfterSplit = InformationTheoryMetrics.calculateEntropyAfterSplit(features, target, bestFeatureIndex);
-    double entropyDecrease = currentEntropy - entropyAfterSplit;
+    if (split.isThresholdSplit()) {
+      // The bins are sorted, so the bins up to the threshold form the left range
+      double threshold = ((NumericBins) dictionary).getUpperBound(split.getThreshold());
+      int middle = offsets[split.getThreshold() + 1];
+      Node left = new Node();
+      Node right = new Node();
+      Map<String, Node> childMap = new HashMap<>();
+      childMap.put(Node.lessOrEqualLabel(threshold), left);
+      childMap.put(Node.greaterLabel(threshold), right);
+      node.setSplitThreshold(threshold);
+      node.setChildren(childMap);
+      Children children = withHistograms(
+          new Children(new Node[] { left, right }, new int[] { from, middle, to }), histograms);
+      commitSplit(event, depth, to - from, split, null);
+      return children;
+    }
 
-    // Compare against our minimum entropy decrease threshold
-    // If the decrease is too small, it's not worth making this split
-    if (entropyDecrease < config.getMinEntropyDecreaseAllowed()) {
-      return true;
+    // Empty values have zero-width ranges, so the non-empty children are
+    // consecutive: child i covers [bounds[i], bounds[i + 1])
+    Node[] childNodes = new Node[numChildren];
+    int[] bounds = new int[numChildren + 1];
+    Map<String, Node> childMap = new HashMap<>();
+    int next = 0;
+    for (int value = 0; value < dictionary.size(); value++) {
+      if (offsets[value + 1] > offsets[value]) {
+        Node childNode = new Node();
+        childMap.put(dictionary.decode(value), childNode);
+        childNodes[next] = childNode;
+        bounds[next] = offsets[value];
+        bounds[++next] = offsets[value + 1];
+      }
     }
 
-    // If all stopping conditions are passed, we should continue splitting
-    return false;
+    node.setChildren(childMap);
+    Children children = withHistograms(new Children(childNodes, bounds), histograms);
+    commitSplit(event, depth, to - from, split, null);
+    return children;
   }
 
   /**
-   * Gets unique values from a specific feature column.
+   * Fills in and commits a node event if a recording wants it.
    * 
-   * @param features     the feature matrix
-   * @param featureIndex the index of the feature to get unique values from
-   * @return a Set of unique String values for the specified feature
+   * @param stopReason why the node became a leaf, or null if it was split
    */
-  private Set<String> getUniqueValues(String[][] features, int featureIndex) {
-    Set<String> uniqueValues = new HashSet<>();
-    for (String[] row : features) {
-      uniqueValues.add(row[featureIndex]);
+  static void commitSplit(TreeEvents.NodeSplit event, int depth, int rows, Split split,
+      TrainingReport.StopReason stopReason) {
+    if (event.shouldCommit()) {
+      event.depth = depth;
+      event.rows = rows;
+      event.feature = stopReason == null ? split.getFeatureIndex() : -1;
+      event.gain = split.getInformationGain();
+      event.stopReason = stopReason == null ? null : stopReason.name();
+      event.commit();
     }
-    return uniqueValues;
   }
 
   /**
-   * Checks if a target array contains only one unique class (is pure).
-   * 
-   * @param target the target array to check
-   * @return true if the target array is pure, false otherwise
+   * Gives the children of a node with histograms their own histograms. Every
+   * child but the largest is scanned, and the largest one's histograms are
+   * the parent's minus those of its siblings, computed in the parent's array.
+   * Below the size where scanning the rows costs less than a histogram pass,
+   * the children are left to scan their rows instead.
    */
-  private boolean isPure(String[] target) {
-    String firstLabel = target[0];
-    for (String label : target) {
-      if (!label.equals(firstLabel))
-        return false;
+  private Children withHistograms(Children children, int[] histograms) {
+    int parentRows = children.bounds[children.nodes.length] - children.bounds[0];
+    if (histograms == null
+        || (long) parentRows * data.getNumFeatures() < splitFinder.getHistogramSize()) {
+      return children;
+    }
+
+    int largest = 0;
+    for (int i = 1; i < children.nodes.length; i++) {
+      if (children.size(i) > children.size(largest)) {
+        largest = i;
+      }
+    }
+    TrainingReport.Probe probe = report != null ? report.begin(TrainingReport.Phase.HISTOGRAMS) : null;
+    children.histograms = new int[children.nodes.length][];
+    for (int i = 0; i < children.nodes.length; i++) {
+      if (i != largest) {
+        int[] own = splitFinder.buildHistograms(
+            new RowSlice(data, partitioner.getRows(), children.bounds[i], children.bounds[i + 1]));
+        splitFinder.subtractHistograms(histograms, own);
+        children.histograms[i] = own;
+      }
+    }
+    children.histograms[largest] = histograms;
+    if (probe != null) {
+      probe.end();
+      report.addRowsScanned(parentRows - children.size(largest));
     }
-    return true;
+    return children;
   }
 
   /**
-   * Determines the majority class in a target array.
-   * 
-   * @param target the target array to analyze
-   * @return the most frequent class label in the target array
+   * The children created by {@link #expand}, their row ranges and, when the
+   * tree is built from histograms, their histograms.
    */
-  private String getMajorityClass(String[] target) {
-    // Create a map to store how many times each class appears
-    Map<String, Integer> counts = new HashMap<>();
+  private static class Children {
+    final Node[] nodes;
+    final int[] bounds;
+    int[][] histograms;
+
+    Children(Node[] nodes, int[] bounds) {
+      this.nodes = nodes;
+      this.bounds = bounds;
+    }
 
-    // Count occurrences of each class
-    for (String label : target) {
-      // If we've seen this label before, get its current count
-      // If we haven't seen it, use 0 as the starting count
-      int currentCount = counts.getOrDefault(label, 0);
+    int size(int child) {
+      return bounds[child + 1] - bounds[child];
+    }
 
-      // Add 1 to the count and update the map
-      counts.put(label, currentCount + 1);
+    /**
+     * Hands a child's histograms over to its subtree, so they can be
+     * collected as soon as that subtree no longer needs them.
+     */
+    int[] takeHistograms(int child) {
+      if (histograms == null) {
+        return null;
+      }
+      int[] taken = histograms[child];
+      histograms[child] = null;
+      return taken;
     }
+  }
 
-    // Find the class with the highest count
-    String majorityClass = null;
-    int maxCount = 0;
+  /**
+   * Builds a subtree with fork/join. Children with at least
+   * {@code parallelBuildThreshold} rows are forked as their own tasks so idle
+   * workers can steal them; smaller subtrees are built sequentially by the
+   * current task. Sibling subtrees only touch disjoint ranges of the shared
+   * row-index array, so the tree is identical to a sequential build.
+   */
+  private class BuildTask extends RecursiveAction {
+    private final Node node;
+    private final int from;
+    private final int to;
+    private final int depth;
+    private int[] histograms;
+
+    BuildTask(Node node, int from, int to, int depth, int[] histograms) {
+      this.node = node;
+      this.from = from;
+      this.to = to;
+      this.depth = depth;
+      this.histograms = histograms;
+    }
 
-    // Go through each class and its count
-    for (var entry : counts.entrySet()) {
-      String className = entry.getKey();
-      int classCount = entry.getValue();
+    @Override
+    protected void compute() {
+      Children children = expand(node, from, to, depth, histograms);
+      histograms = null;
+      if (children == null) {
+        return;
+      }
 
-      if (classCount > maxCount) {
-        maxCount = classCount;
-        majorityClass = className;
+      List<BuildTask> forked = new ArrayList<>();
+      for (int i = 0; i < children.nodes.length; i++) {
+        int childFrom = children.bounds[i];
+        int childTo = children.bounds[i + 1];
+        if (childTo - childFrom >= parallelBuildThreshold) {
+          BuildTask task = new BuildTask(children.nodes[i], childFrom, childTo, depth + 1,
+              children.takeHistograms(i));
+          task.fork();
+          forked.add(task);
+        }
+      }
+      for (int i = 0; i < children.nodes.length; i++) {
+        int childFrom = children.bounds[i];
+        int childTo = children.bounds[i + 1];
+        if (childTo - childFrom < parallelBuildThreshold) {
+          fit(children.nodes[i], childFrom, childTo, depth + 1, children.takeHistograms(i));
+        }
       }
+      for (int i = forked.size() - 1; i >= 0; i--) {
+        forked.get(i).join();
+      }
+    }
+  }
+
+  /**
+   * Draws the candidate features of a node when feature subsampling is on.
+   * A node is identified by the start of its row range and its depth, which
+   * are the same in sequential and parallel builds.
+   * 
+   * @return the candidate feature indices in ascending order, or null for all
+   */
+  private int[] sampleFeatures(int from, int depth) {
+    int numFeatures = data.getNumFeatures();
+    if (featuresPerSplit <= 0 || featuresPerSplit >= numFeatures) {
+      return null;
+    }
+    SplittableRandom random = new SplittableRandom(featureSeed ^ (from * 0x9E3779B97F4A7C15L + depth));
+    int[] features = new int[numFeatures];
+    for (int i = 0; i < numFeatures; i++) {
+      features[i] = i;
+    }
+    // Partial Fisher-Yates shuffle of the first featuresPerSplit positions
+    for (int i = 0; i < featuresPerSplit; i++) {
+      int j = i + random.nextInt(numFeatures - i);
+      int swap = features[i];
+      features[i] = features[j];
+      features[j] = swap;
     }
+    int[] chosen = Arrays.copyOf(features, featuresPerSplit);
+    Arrays.sort(chosen);
+    return chosen;
+  }
 
-    return majorityClass;
+  /**
+   * Resolves the configured limits against a training set.
+   * 
+   * @param limits         the configured limits, or null to derive them all
+   * @param initialEntropy the label entropy of the training set
+   * @param numRows        the number of training rows
+   * @return the limits with every value set
+   */
+  static TrainingConfig resolveConfig(TrainingConfig limits, double initialEntropy, int numRows) {
+    return limits != null ? limits.resolve(initialEntropy, numRows)
+        : new TrainingConfig(initialEntropy, numRows);
   }
 
   /**
-   * Splits the dataset based on a specific feature value.
+   * Determines whether to stop splitting based on various criteria, and
+   * which one applies first.
+   * All statistics come from the split evaluation, so nothing is rescanned.
    * 
-   * @param features     the feature matrix to split
-   * @param targets      the target array to split
-   * @param featureIndex the index of the feature to split on
-   * @param featureValue the value of the feature to split on
-   * @return a Dataset containing the split data
+   * @param split  the best split found for the current node
+   * @param depth  the current depth in the tree
+   * @param config the limits to check against
+   * @return why the node should not be split, or null to split it
    */
-  public Dataset splitData(String[][] features, String[] targets, int featureIndex, String featureValue) {
-    List<String[]> newFeatures = new ArrayList<>();
-    List<String> newTargets = new ArrayList<>();
+  static TrainingReport.StopReason stopReason(Split split, int depth, TrainingConfig config) {
+    // First, check for the pure subset case
+    if (split.isPure()) {
+      return TrainingReport.StopReason.PURE;
+    }
+    if (split.getFeatureIndex() < 0) {
+      return TrainingReport.StopReason.NO_SPLIT;
+    }
 
-    for (int i = 0; i < features.length; i++) {
-      String[] row = features[i];
-      if (row[featureIndex].equals(featureValue)) {
-        // Add both features and target values to the new split
-        String[] newRow = Arrays.copyOf(row, row.length);
-        newFeatures.add(newRow);
-        newTargets.add(targets[i]);
-      }
+    // Check depth and sample size against pre-configured limits
+    // These limits are calcualted in the TrainingConfig class
+    if (depth >= config.getMaxDepthAllowed()) {
+      return TrainingReport.StopReason.MAX_DEPTH;
+    }
+    if (split.getNumRows() < config.getMinSamplesAllowed()) {
+      return TrainingReport.StopReason.MIN_SAMPLES;
     }
 
-    return new Dataset(newFeatures.toArray(new String[0][]),
-        newTargets.toArray(new String[0]));
+    // Compare the entropy decrease against our minimum threshold
+    // If the decrease is too small, it's not worth making this split; a
+    // split must gain something even when the configured minimum is 0
+    if (split.getInformationGain() < config.getMinEntropyDecreaseAllowed()
+        || split.getInformationGain() <= MIN_GAIN) {
+      return TrainingReport.StopReason.MIN_ENTROPY_DECREASE;
+    }
+
+    // If all stopping conditions are passed, we should continue splitting
+    return null;
   }
 
   /**
@@ -293,57 +992,18 @@ public class DecisionTree {
    * @return the index of the feature that provides the highest information gain
    */
   public int findBestSplit(String[][] features, String[] target) {
-    double bestInformationGain = Double.NEGATIVE_INFINITY;
-    int bestFeatureIndex = -1;
-
-    // Calculate entropy of entire dataset before any splits
-    double baseEntropy = InformationTheoryMetrics.calculateEntropy(features, target);
-
-    // Evaluate each feature as a potential split point
-    for (int featureIndex = 0; featureIndex < features[0].length; featureIndex++) {
-      // Find all unique values for this feature
-      Set<String> uniqueValues = new HashSet<>();
-      for (int row = 0; row < features.length; row++) {
-        uniqueValues.add(features[row][featureIndex]);
-      }
-
-      // Calculate weighted entropy across all values of this feature
-      double weightedEntropy = 0;
-      for (String value : uniqueValues) {
-        // For each unique value, gather target values that match this feature value
-        int totalCount = 0;
-        List<String> subtargets = new ArrayList<>();
-
-        for (int row = 0; row < features.length; row++) {
-          if (features[row][featureIndex].equals(value)) {
-            totalCount++;
-            subtargets.add(target[row]);
-          }
-        }
-
-        // Calculate probability of this value occurring
-        double probability = (double) totalCount / features.length;
-
-        // Calculate entropy of the subset with this feature value
-        double subEntropy = InformationTheoryMetrics.calculateEntropy(
-            new String[0][0], // Empty features array since we only need target values
-            subtargets.toArray(new String[0]));
-
-        // Add weighted entropy contribution from this subset
-        weightedEntropy += probability * subEntropy;
-      }
-
-      // Information gain is reduction in entropy after split
-      double informationGain = baseEntropy - weightedEntropy;
-
-      // Keep track of feature that gives best information gain
-      if (informationGain > bestInformationGain) {
-        bestInformationGain = informationGain;
-        bestFeatureIndex = featureIndex;
-      }
-    }
+    return findBestSplit(EncodedDataset.encode(features, target));
+  }
 
-    return bestFeatureIndex;
+  /**
+   * Finds the best feature to split on based on information gain.
+   * 
+   * @param data the encoded samples
+   * @return the index of the feature that provides the highest information gain
+   */
+  public int findBestSplit(EncodedDataset data) {
+    int[] rows = new RowPartitioner(data.getNumRows()).getRows();
+    return new SplitFinder(data).findBestSplit(new RowSlice(data, rows, 0, rows.length)).getFeatureIndex();
   }
 
   /**
@@ -353,118 +1013,105 @@ public class DecisionTree {
    * @return an array of predicted class labels
    */
   public String[] predict(String[][] testData) {
-    // Create an array to hold predictions for each row
-    String[] predictions = new String[testData.length];
-
-    // For each row in our test data
-    for (int i = 0; i < testData.length; i++) {
-      // Get prediction for this single row using our private predict method
-      predictions[i] = predict(testData[i]);
+    TreeEvents.Predict event = new TreeEvents.Predict();
+    event.begin();
+    String[] predictions;
+    if (predictor != null) {
+      predictions = predictor.predict(testData);
+    } else {
+      // Create an array to hold predictions for each row
+      predictions = new String[testData.length];
+
+      // For each row in our test data
+      for (int i = 0; i < testData.length; i++) {
+        // Get prediction for this single row; predictRow emits no events of
+        // its own, so the batch is recorded once
+        predictions[i] = predictRow(testData[i]);
+      }
     }
 
+    if (event.shouldCommit()) {
+      event.rows = testData.length;
+      event.commit();
+    }
     return predictions;
   }
 
   /**
    * Makes a prediction for a single sample.
+   * Prediction only reads the model, so it may be called from many threads.
    * 
    * @param row the feature array to make a prediction for
    * @return the predicted class label
    */
-  private String predict(String[] row) {
+  public String predict(String[] row) {
+    TreeEvents.Predict event = new TreeEvents.Predict();
+    if (event.isEnabled()
+        && ThreadLocalRandom.current().nextInt(TreeEvents.PREDICT_SAMPLE_INTERVAL) == 0) {
+      event.begin();
+      String prediction = predictRow(row);
+      event.rows = 1;
+      event.sampled = true;
+      event.commit();
+      return prediction;
+    }
+    return predictRow(row);
+  }
+
+  private String predictRow(String[] row) {
+    if (predictor != null) {
+      return predictor.predict(row);
+    }
+
     Node currentNode = root;
-    // Keep track of the last valid node with a prediction
-    Node lastValidNode = root;
 
     while (!currentNode.isLeaf()) {
-      int featureIdx = currentNode.getSplitFeatureIndex();
       // Get the feature value from the test row using the node's split feature
       String featureValue = row[currentNode.getSplitFeatureIndex()];
 
       Node nextNode = currentNode.getNextNode(featureValue);
-      // If can't find a matching child node
+      // If can't find a matching child node, fall back to the majority class
+      // recorded for the current node during training
       if (nextNode == null) {
-
-        // Before breaking, ensure current node has a prediction
-        if (currentNode.getPredictedClass() == null) {
-          // Use the training data at this node to make a prediction
-          Dataset nodeData = currentNode.getDataPoints();
-          if (nodeData != null && nodeData.getY() != null && nodeData.getY().length > 0) {
-            currentNode.setPredictedClass(getMajorityClass(nodeData.getY()));
-          } else {
-            // If no data available at current node, use last valid node's prediction
-            currentNode.setPredictedClass(lastValidNode.getPredictedClass());
-          }
-        }
         break;
       }
 
-      // Before moving to next node, update last valid node if current has a
-      // prediction
-      if (currentNode.getPredictedClass() != null) {
-        lastValidNode = currentNode;
-      }
-
       currentNode = nextNode;
     }
 
-    // Final safety check - if still don't have a prediction,
-    // use the root node's majority class
-    if (currentNode.getPredictedClass() == null) {
-      Dataset rootData = root.getDataPoints();
-      String rootPrediction = getMajorityClass(rootData.getY());
-      currentNode.setPredictedClass(rootPrediction);
-    }
-
     return currentNode.getPredictedClass();
   }
 
   /**
-   * Public method to start printing the tree
+   * Flattens the trained tree into a {@link CompiledTree} for low-latency
+   * inference on dictionary codes.
+   * 
+   * @return the compiled tree
+   * @throws IllegalStateException if the tree has not been trained
    */
-  public void printTree() {
-    if (root == null) {
-      System.out.println("Tree is empty");
-      return;
+  public CompiledTree compile() {
+    if (root == null || labelDictionary == null) {
+      throw new IllegalStateException("The tree must be trained before it can be compiled");
     }
-    System.out.println("\nDecision Tree Structure:");
-    System.out.println("========================");
-    printNode(root, "", "ROOT");
+    return CompiledTree.compile(root, featureDictionaries, labelDictionary);
   }
 
   /**
-   * Private recursive method to print each node
+   * Saves the trained model in the binary format of {@link ModelFile}, which
+   * can later be loaded without retraining through {@link ModelFile#map}.
    * 
-   * @param node        Current node being printed
-   * @param indent      Current indentation string
-   * @param branchLabel Label for the current branch
+   * @param path the file to write
+   * @throws IOException           if the file cannot be written
+   * @throws IllegalStateException if the tree has not been trained
    */
-  private void printNode(Node node, String indent, String branchLabel) {
-    // Print current node with its branch label
-    System.out.print(indent + "├── " + branchLabel);
+  public void save(Path path) throws IOException {
+    ModelFile.write(compile(), path);
+  }
 
-    if (node.isLeaf()) {
-      // For leaf nodes, print the prediction
-      System.out.println(" → " + node.getPredictedClass());
-    } else {
-      // For internal nodes, print the split feature name or index
-      int featureIndex = node.getSplitFeatureIndex();
-      String featureName = featureNames != null && featureIndex < featureNames.length ? featureNames[featureIndex]
-          : "feature " + featureIndex;
-      System.out.println(" [Split on " + featureName + "]");
-
-      // Print each child with increased indentation
-      String newIndent = indent + "│   ";
-      Map<String, Node> children = node.getChildren();
-
-      // Sort the feature values for consistent output
-      List<String> sortedFeatureValues = new ArrayList<>(children.keySet());
-      Collections.sort(sortedFeatureValues);
-
-      for (String featureValue : sortedFeatureValues) {
-        Node child = children.get(featureValue);
-        printNode(child, newIndent, featureValue);
-      }
-    }
+  /**
+   * Public method to start printing the tree
+   */
+  public void printTree() {
+    TreeVisualizer.printTree(root, featureNames, "Decision Tree Structure");
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,554 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gradient boosting of shallow categorical regression trees under log-loss.
+ *
+ * Each round fits one tree per score column to the gradients of the log-loss:
+ * a single column of log-odds for binary targets, and one column per class
+ * (softmax) for multiclass targets. Trees split multiway on a feature's
+ * dictionary codes, like {@link DecisionTree}, but choose the split that
+ * maximises the second-order gain sum(G_c^2 / (H_c + lambda)) over the
+ * children, and their leaves hold the Newton step -G / (H + lambda) scaled by
+ * the learning rate.
+ *
+ * Scores, probabilities, gradients and hessians live in primitive double[]
+ * arrays sized once per fit and updated in place every round. Training rows
+ * get their new scores straight from the leaf ranges of the row partitioner,
+ * so only validation rows are walked through the new tree.
+ *
+ * When validation rows are given, the validation log-loss is tracked after
+ * every round and training stops once it has not improved for the configured
+ * number of rounds; the model is then cut back to the best round.
+ */
+public class GradientBoostedTrees implements Predictor {
+  public static final int DEFAULT_NUM_ROUNDS = 100;
+  public static final double DEFAULT_LEARNING_RATE = 0.1;
+  public static final int DEFAULT_MAX_DEPTH = 3;
+  public static final double DEFAULT_LAMBDA = 1.0;
+  public static final int DEFAULT_EARLY_STOPPING_ROUNDS = 10;
+
+  private int numRounds = DEFAULT_NUM_ROUNDS;
+  private double learningRate = DEFAULT_LEARNING_RATE;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+  private double lambda = DEFAULT_LAMBDA;
+  private int earlyStoppingRounds = DEFAULT_EARLY_STOPPING_ROUNDS;
+
+  private Tree[] trees;
+  private double[] baseScores;
+  private int numOutputs;
+  private int numClasses;
+  private CategoryDictionary[] featureDictionaries;
+  private CategoryDictionary labelDictionary;
+  private double[] validationLoss;
+
+  // Training state, released after fit
+  private EncodedDataset data;
+  private RowPartitioner partitioner;
+  private double[] gradients;
+  private double[] hessians;
+  private double[] gradientSums;
+  private double[] hessianSums;
+  private int[] counts;
+
+  public GradientBoostedTrees() {
+  }
+
+  /**
+   * @param numRounds the maximum number of boosting rounds
+   */
+  public void setNumRounds(int numRounds) {
+    if (numRounds <= 0) {
+      throw new IllegalArgumentException("The number of rounds must be positive");
+    }
+    this.numRounds = numRounds;
+  }
+
+  /**
+   * @param learningRate the shrinkage applied to every tree's leaf values
+   */
+  public void setLearningRate(double learningRate) {
+    if (!(learningRate > 0)) {
+      throw new IllegalArgumentException("The learning rate must be positive");
+    }
+    this.learningRate = learningRate;
+  }
+
+  /**
+   * @param maxDepth the maximum depth of every tree; the root is depth 0
+   */
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("The maximum depth must be positive");
+    }
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * @param lambda the L2 penalty on leaf values, added to every hessian sum
+   */
+  public void setLambda(double lambda) {
+    if (lambda < 0) {
+      throw new IllegalArgumentException("Lambda must not be negative");
+    }
+    this.lambda = lambda;
+  }
+
+  /**
+   * @param rounds stop after this many rounds without a better validation
+   *               loss
+   */
+  public void setEarlyStoppingRounds(int rounds) {
+    if (rounds <= 0) {
+      throw new IllegalArgumentException("The early stopping patience must be positive");
+    }
+    this.earlyStoppingRounds = rounds;
+  }
+
+  /**
+   * Trains on raw rows, stopping early on a separate held-out set. Both sets
+   * are encoded together so they share dictionaries.
+   */
+  public void fit(String[][] features, String[] target, String[][] validationFeatures,
+      String[] validationTarget) {
+    if (features == null || target == null || features.length == 0 || features.length != target.length) {
+      throw new IllegalArgumentException("Features and target must be non-empty and of equal length");
+    }
+    if (validationFeatures == null || validationTarget == null
+        || validationFeatures.length != validationTarget.length) {
+      throw new IllegalArgumentException("Validation features and target must be of equal length");
+    }
+    int numTrain = features.length;
+    int numValidation = validationFeatures.length;
+    String[][] x = Arrays.copyOf(features, numTrain + numValidation);
+    String[] y = Arrays.copyOf(target, numTrain + numValidation);
+    System.arraycopy(validationFeatures, 0, x, numTrain, numValidation);
+    System.arraycopy(validationTarget, 0, y, numTrain, numValidation);
+
+    int[] trainRows = new int[numTrain];
+    for (int i = 0; i < numTrain; i++) {
+      trainRows[i] = i;
+    }
+    int[] validationRows = new int[numValidation];
+    for (int i = 0; i < numValidation; i++) {
+      validationRows[i] = numTrain + i;
+    }
+    fit(EncodedDataset.encode(x, y), trainRows, validationRows);
+  }
+
+  /**
+   * Trains on raw rows for the full number of rounds.
+   */
+  public void fit(String[][] features, String[] target) {
+    if (features == null || target == null || features.length == 0 || features.length != target.length) {
+      throw new IllegalArgumentException("Features and target must be non-empty and of equal length");
+    }
+    fit(EncodedDataset.encode(features, target));
+  }
+
+  /**
+   * Trains on every row of the dataset for the full number of rounds.
+   */
+  public void fit(EncodedDataset data) {
+    int[] rows = new int[data.getNumRows()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = i;
+    }
+    fit(data, rows, new int[0]);
+  }
+
+  /**
+   * Trains on index views of one dataset.
+   *
+   * @param data           the encoded dataset holding both sets of rows
+   * @param trainRows      the rows the trees are fitted to
+   * @param validationRows the held-out rows used for early stopping; when
+   *                       empty every round is kept
+   */
+  public void fit(EncodedDataset data, int[] trainRows, int[] validationRows) {
+    if (trainRows.length == 0) {
+      throw new IllegalArgumentException("At least one training row is required");
+    }
+    int numRows = data.getNumRows();
+    int numFeatures = data.getNumFeatures();
+    int[] labels = data.getLabels();
+    this.numClasses = data.getNumClasses();
+    this.numOutputs = numClasses <= 2 ? 1 : numClasses;
+    this.featureDictionaries = new CategoryDictionary[numFeatures];
+    int maxCardinality = 1;
+    for (int f = 0; f < numFeatures; f++) {
+      featureDictionaries[f] = data.getFeatureDictionary(f).toImmutable();
+      maxCardinality = Math.max(maxCardinality, featureDictionaries[f].size());
+    }
+    this.labelDictionary = data.getLabelDictionary().toImmutable();
+
+    this.data = data;
+    this.partitioner = new RowPartitioner(trainRows.clone());
+    this.gradients = new double[numRows];
+    this.hessians = new double[numRows];
+    this.gradientSums = new double[maxCardinality];
+    this.hessianSums = new double[maxCardinality];
+    this.counts = new int[maxCardinality];
+
+    // Scores and probabilities are indexed [row * numOutputs + output]
+    this.baseScores = initialScores(labels, trainRows);
+    double[] scores = new double[numRows * numOutputs];
+    for (int row = 0; row < numRows; row++) {
+      System.arraycopy(baseScores, 0, scores, row * numOutputs, numOutputs);
+    }
+    double[] probabilities = new double[numRows * numOutputs];
+    int[] codes = new int[numFeatures];
+
+    List<Tree> fitted = new ArrayList<>();
+    List<Double> losses = new ArrayList<>();
+    double bestLoss = Double.POSITIVE_INFINITY;
+    int bestRounds = 0;
+    for (int round = 0; round < numRounds; round++) {
+      computeProbabilities(scores, probabilities, trainRows);
+      for (int output = 0; output < numOutputs; output++) {
+        int positiveClass = numOutputs == 1 ? 1 : output;
+        for (int row : trainRows) {
+          double p = probabilities[row * numOutputs + output];
+          gradients[row] = p - (labels[row] == positiveClass ? 1.0 : 0.0);
+          hessians[row] = Math.max(p * (1.0 - p), 1e-16);
+        }
+
+        TreeBuilder builder = new TreeBuilder();
+        grow(builder, 0, trainRows.length, 0, scores, output);
+        Tree tree = builder.build();
+        fitted.add(tree);
+
+        for (int row : validationRows) {
+          for (int f = 0; f < numFeatures; f++) {
+            codes[f] = data.getColumn(f)[row];
+          }
+          scores[row * numOutputs + output] += tree.score(codes);
+        }
+      }
+
+      if (validationRows.length > 0) {
+        computeProbabilities(scores, probabilities, validationRows);
+        double loss = logLoss(probabilities, labels, validationRows);
+        losses.add(loss);
+        if (loss < bestLoss) {
+          bestLoss = loss;
+          bestRounds = round + 1;
+        } else if (round + 1 - bestRounds >= earlyStoppingRounds) {
+          break;
+        }
+      } else {
+        bestRounds = round + 1;
+      }
+    }
+
+    this.trees = fitted.subList(0, bestRounds * numOutputs).toArray(new Tree[0]);
+    this.validationLoss = losses.stream().mapToDouble(Double::doubleValue).toArray();
+    this.data = null;
+    this.partitioner = null;
+    this.gradients = null;
+    this.hessians = null;
+    this.gradientSums = null;
+    this.hessianSums = null;
+    this.counts = null;
+  }
+
+  /**
+   * Starts every row at the log-odds (binary) or log-prior (multiclass) of
+   * the training labels, smoothed so that empty classes stay finite.
+   */
+  private double[] initialScores(int[] labels, int[] trainRows) {
+    double[] classCounts = new double[Math.max(numClasses, 2)];
+    for (int row : trainRows) {
+      classCounts[labels[row]]++;
+    }
+    double[] base = new double[numOutputs];
+    if (numOutputs == 1) {
+      base[0] = Math.log((classCounts[1] + 1.0) / (classCounts[0] + 1.0));
+    } else {
+      for (int c = 0; c < numClasses; c++) {
+        base[c] = Math.log((classCounts[c] + 1.0) / (trainRows.length + numClasses));
+      }
+    }
+    return base;
+  }
+
+  /**
+   * Overwrites the probabilities of the given rows from their scores.
+   */
+  private void computeProbabilities(double[] scores, double[] probabilities, int[] rows) {
+    for (int row : rows) {
+      int offset = row * numOutputs;
+      if (numOutputs == 1) {
+        probabilities[offset] = 1.0 / (1.0 + Math.exp(-scores[offset]));
+      } else {
+        softmax(scores, offset, probabilities, offset, numOutputs);
+      }
+    }
+  }
+
+  private static void softmax(double[] scores, int from, double[] into, int at, int length) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int k = 0; k < length; k++) {
+      max = Math.max(max, scores[from + k]);
+    }
+    double sum = 0.0;
+    for (int k = 0; k < length; k++) {
+      double e = Math.exp(scores[from + k] - max);
+      into[at + k] = e;
+      sum += e;
+    }
+    for (int k = 0; k < length; k++) {
+      into[at + k] /= sum;
+    }
+  }
+
+  private double logLoss(double[] probabilities, int[] labels, int[] rows) {
+    double loss = 0.0;
+    for (int row : rows) {
+      double p;
+      if (numOutputs == 1) {
+        double positive = probabilities[row];
+        p = labels[row] == 1 ? positive : 1.0 - positive;
+      } else {
+        p = probabilities[row * numOutputs + labels[row]];
+      }
+      loss -= Math.log(Math.max(p, 1e-15));
+    }
+    return loss / rows.length;
+  }
+
+  /**
+   * Grows the subtree of partitioner range [from, to) and adds its leaf
+   * values to the training scores of the rows that end there.
+   *
+   * @return the id of the new node
+   */
+  private int grow(TreeBuilder builder, int from, int to, int depth, double[] scores,
+      int output) {
+    int[] rows = partitioner.getRows();
+    double gradientSum = 0.0;
+    double hessianSum = 0.0;
+    for (int i = from; i < to; i++) {
+      gradientSum += gradients[rows[i]];
+      hessianSum += hessians[rows[i]];
+    }
+    double value = -learningRate * gradientSum / (hessianSum + lambda);
+    int id = builder.addNode(value);
+
+    int feature = depth < maxDepth && to - from >= 2
+        ? findBestFeature(from, to, gradientSum, hessianSum)
+        : -1;
+    if (feature < 0) {
+      for (int i = from; i < to; i++) {
+        scores[rows[i] * numOutputs + output] += value;
+      }
+      return id;
+    }
+
+    int cardinality = featureDictionaries[feature].size();
+    int[] offsets = partitioner.partition(data.getColumn(feature), cardinality, from, to);
+    int base = builder.split(id, feature, cardinality);
+    for (int code = 0; code < cardinality; code++) {
+      if (offsets[code + 1] > offsets[code]) {
+        int child = grow(builder, offsets[code], offsets[code + 1], depth + 1, scores, output);
+        builder.setChild(base + code, child);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @return the feature with the largest positive Newton gain, or -1 if no
+   *         split improves on the node's own leaf value
+   */
+  private int findBestFeature(int from, int to, double gradientSum, double hessianSum) {
+    int[] rows = partitioner.getRows();
+    double parentScore = gradientSum * gradientSum / (hessianSum + lambda);
+    int bestFeature = -1;
+    double bestGain = 1e-12;
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      int cardinality = featureDictionaries[f].size();
+      int[] column = data.getColumn(f);
+      Arrays.fill(gradientSums, 0, cardinality, 0.0);
+      Arrays.fill(hessianSums, 0, cardinality, 0.0);
+      Arrays.fill(counts, 0, cardinality, 0);
+      for (int i = from; i < to; i++) {
+        int row = rows[i];
+        int code = column[row];
+        gradientSums[code] += gradients[row];
+        hessianSums[code] += hessians[row];
+        counts[code]++;
+      }
+
+      double childScore = 0.0;
+      int nonEmpty = 0;
+      for (int code = 0; code < cardinality; code++) {
+        if (counts[code] > 0) {
+          nonEmpty++;
+          childScore += gradientSums[code] * gradientSums[code] / (hessianSums[code] + lambda);
+        }
+      }
+      double gain = childScore - parentScore;
+      if (nonEmpty > 1 && gain > bestGain) {
+        bestGain = gain;
+        bestFeature = f;
+      }
+    }
+    return bestFeature;
+  }
+
+  /**
+   * Predicts the class probabilities of a raw row.
+   *
+   * @return one probability per class code
+   */
+  public double[] predictProbabilities(String[] row) {
+    checkTrained();
+    int[] codes = new int[featureDictionaries.length];
+    for (int f = 0; f < codes.length; f++) {
+      codes[f] = featureDictionaries[f].codeOf(row[f]);
+    }
+    double[] scores = baseScores.clone();
+    for (int t = 0; t < trees.length; t++) {
+      scores[t % numOutputs] += trees[t].score(codes);
+    }
+
+    double[] probabilities = new double[numClasses];
+    if (numOutputs == 1) {
+      double positive = 1.0 / (1.0 + Math.exp(-scores[0]));
+      probabilities[0] = 1.0 - positive;
+      if (numClasses > 1) {
+        probabilities[1] = positive;
+      }
+    } else {
+      softmax(scores, 0, probabilities, 0, numClasses);
+    }
+    return probabilities;
+  }
+
+  @Override
+  public String predict(String[] row) {
+    double[] probabilities = predictProbabilities(row);
+    int best = 0;
+    for (int c = 1; c < probabilities.length; c++) {
+      if (probabilities[c] > probabilities[best]) {
+        best = c;
+      }
+    }
+    return labelDictionary.decode(best);
+  }
+
+  /**
+   * @return the number of boosting rounds kept after early stopping
+   */
+  public int getNumRounds() {
+    return trees == null ? 0 : trees.length / numOutputs;
+  }
+
+  /**
+   * @return the validation log-loss after each round that was run, empty if
+   *         no validation rows were given
+   */
+  public double[] getValidationLoss() {
+    return validationLoss.clone();
+  }
+
+  private void checkTrained() {
+    if (trees == null) {
+      throw new IllegalStateException("The model must be trained before predicting");
+    }
+  }
+
+  /**
+   * One fitted regression tree, flattened like {@link CompiledTree} but with
+   * a real-valued output per node. A row whose category was not seen at a
+   * node stops there and takes that node's value.
+   */
+  private static final class Tree {
+    private final int[] feature;
+    private final int[] childBase;
+    private final int[] children;
+    private final double[] value;
+
+    Tree(int[] feature, int[] childBase, int[] children, double[] value) {
+      this.feature = feature;
+      this.childBase = childBase;
+      this.children = children;
+      this.value = value;
+    }
+
+    double score(int[] codes) {
+      int node = 0;
+      int f;
+      while ((f = feature[node]) >= 0) {
+        int code = codes[f];
+        int slot = childBase[node + 1] - childBase[node];
+        if (code < 0 || code >= slot) {
+          break;
+        }
+        int child = children[childBase[node] + code];
+        if (child < 0) {
+          break;
+        }
+        node = child;
+      }
+      return value[node];
+    }
+  }
+
+  /**
+   * Collects nodes in creation order. childBase has one extra trailing entry
+   * so that childBase[n + 1] - childBase[n] is node n's number of slots.
+   */
+  private static final class TreeBuilder {
+    private int[] feature = new int[16];
+    private int[] childBase = new int[17];
+    private int[] children = new int[64];
+    private double[] value = new double[16];
+    private int numNodes;
+    private int numSlots;
+
+    int addNode(double nodeValue) {
+      if (numNodes == feature.length) {
+        feature = Arrays.copyOf(feature, numNodes * 2);
+        childBase = Arrays.copyOf(childBase, numNodes * 2 + 1);
+        value = Arrays.copyOf(value, numNodes * 2);
+      }
+      feature[numNodes] = -1;
+      value[numNodes] = nodeValue;
+      childBase[numNodes] = numSlots;
+      childBase[numNodes + 1] = numSlots;
+      return numNodes++;
+    }
+
+    /**
+     * Turns the most recently added node into a split with one slot per code.
+     */
+    int split(int node, int splitFeature, int cardinality) {
+      if (numSlots + cardinality > children.length) {
+        children = Arrays.copyOf(children, Math.max(children.length * 2, numSlots + cardinality));
+      }
+      Arrays.fill(children, numSlots, numSlots + cardinality, -1);
+      int base = numSlots;
+      feature[node] = splitFeature;
+      numSlots += cardinality;
+      childBase[node + 1] = numSlots;
+      return base;
+    }
+
+    void setChild(int slot, int child) {
+      children[slot] = child;
+    }
+
+    Tree build() {
+      return new Tree(Arrays.copyOf(feature, numNodes), Arrays.copyOf(childBase, numNodes + 1),
+          Arrays.copyOf(children, numSlots), Arrays.copyOf(value, numNodes));
+    }
+  }
+}
@@ -0,0 +1,351 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.core.Node;
+import com.stegrandom.core.TrainingConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Selects pre-pruning limits by k-fold cross-validation over a grid of
+ * {@link TrainingConfig}s.
+ *
+ * The rows are shuffled once with the seed and cut into k folds. Every fold
+ * is a pair of row-index arrays over one shared {@link EncodedDataset}, so
+ * the data is never copied, and folds are trained in parallel, one task per
+ * fold.
+ *
+ * A fold does not train one tree per config. Its configs are resolved
+ * against the fold's training rows, and a single tree is grown with the
+ * loosest of them: the largest depth, the fewest samples and the smallest
+ * entropy decrease. The stopping rules are monotone, so the tree of any
+ * stricter config is that tree cut short at the first node on each path where
+ * the stricter config would stop. The held-out rows are routed through the
+ * grown tree once, and every config is scored from the same paths. Every
+ * split and histogram computed for the shared top of the trees is thus
+ * computed once per fold instead of once per config.
+ */
+public class GridSearch {
+  public static final int DEFAULT_FOLDS = 5;
+
+  private final int numFolds;
+  private final long seed;
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+  private List<Result> results;
+
+  /**
+   * @param numFolds the number of cross-validation folds, at least 2
+   * @param seed     the seed of the fold assignment
+   */
+  public GridSearch(int numFolds, long seed) {
+    if (numFolds < 2) {
+      throw new IllegalArgumentException("Cross-validation needs at least 2 folds");
+    }
+    this.numFolds = numFolds;
+    this.seed = seed;
+  }
+
+  /**
+   * @param pool the pool used to train and evaluate folds in parallel
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Builds the grid of every combination of the given limits. A null array
+   * leaves that limit derived from the training set.
+   */
+  public static List<TrainingConfig> grid(int[] minSamples, int[] maxDepths, double[] minEntropyDecreases) {
+    List<TrainingConfig> grid = new ArrayList<>();
+    int numSamples = minSamples != null ? minSamples.length : 1;
+    int numDepths = maxDepths != null ? maxDepths.length : 1;
+    int numDecreases = minEntropyDecreases != null ? minEntropyDecreases.length : 1;
+    for (int s = 0; s < numSamples; s++) {
+      for (int d = 0; d < numDepths; d++) {
+        for (int e = 0; e < numDecreases; e++) {
+          TrainingConfig.Builder builder = TrainingConfig.builder();
+          if (minSamples != null) {
+            builder.minSamples(minSamples[s]);
+          }
+          if (maxDepths != null) {
+            builder.maxDepth(maxDepths[d]);
+          }
+          if (minEntropyDecreases != null) {
+            builder.minEntropyDecrease(minEntropyDecreases[e]);
+          }
+          grid.add(builder.build());
+        }
+      }
+    }
+    return grid;
+  }
+
+  public List<Result> search(String[][] features, String[] target, List<TrainingConfig> configs) {
+    if (features == null || target == null || features.length == 0 || features.length != target.length) {
+      throw new IllegalArgumentException("Features and target must be non-empty and of equal length");
+    }
+    return search(EncodedDataset.encode(features, target), configs);
+  }
+
+  /**
+   * Cross-validates every config.
+   *
+   * @param data    the dictionary-encoded data, shared by all folds
+   * @param configs the configs to compare
+   * @return one result per config, in the order of the configs
+   */
+  public List<Result> search(EncodedDataset data, List<TrainingConfig> configs) {
+    int numRows = data.getNumRows();
+    if (configs.isEmpty()) {
+      throw new IllegalArgumentException("The grid needs at least one config");
+    }
+    for (TrainingConfig config : configs) {
+      if (config.hasBudget()) {
+        // A budget stops a tree where no limit would, so it cannot be cut
+        // from the shared tree of a fold
+        throw new IllegalArgumentException("Training budgets cannot be cross-validated: " + config);
+      }
+    }
+    if (numRows < numFolds) {
+      throw new IllegalArgumentException("Cannot cut " + numRows + " rows into " + numFolds + " folds");
+    }
+
+    // Fisher-Yates shuffle; fold f holds the rows at [f * n / k, (f + 1) * n / k)
+    int[] order = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      order[i] = i;
+    }
+    SplittableRandom random = new SplittableRandom(seed);
+    for (int i = numRows - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+
+    ConfusionMatrix[][] matrices = new ConfusionMatrix[numFolds][];
+    List<RecursiveAction> tasks = new ArrayList<>();
+    for (int f = 0; f < numFolds; f++) {
+      int fold = f;
+      int from = (int) ((long) fold * numRows / numFolds);
+      int to = (int) ((long) (fold + 1) * numRows / numFolds);
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          int[] train = new int[numRows - (to - from)];
+          System.arraycopy(order, 0, train, 0, from);
+          System.arraycopy(order, to, train, from, numRows - to);
+          int[] test = new int[to - from];
+          System.arraycopy(order, from, test, 0, to - from);
+          matrices[fold] = evaluateFold(data, train, test, configs);
+        }
+      });
+    }
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+
+    List<Result> results = new ArrayList<>();
+    for (int c = 0; c < configs.size(); c++) {
+      ConfusionMatrix pooled = new ConfusionMatrix(data.getNumClasses());
+      double[] foldAccuracies = new double[numFolds];
+      for (int f = 0; f < numFolds; f++) {
+        pooled.merge(matrices[f][c]);
+        foldAccuracies[f] = matrices[f][c].getAccuracy();
+      }
+      results.add(new Result(configs.get(c), pooled, foldAccuracies));
+    }
+    this.results = Collections.unmodifiableList(results);
+    return this.results;
+  }
+
+  /**
+   * Trains one fold with the loosest of its configs and scores every config
+   * on the held-out rows.
+   *
+   * @return one matrix of class codes per config
+   */
+  private static ConfusionMatrix[] evaluateFold(EncodedDataset data, int[] train, int[] test,
+      List<TrainingConfig> configs) {
+    int numClasses = data.getNumClasses();
+    int[] labels = data.getLabels();
+    int[] classCounts = new int[numClasses];
+    for (int row : train) {
+      classCounts[labels[row]]++;
+    }
+    double initialEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(
+        classCounts, 0, numClasses, train.length);
+
+    int numConfigs = configs.size();
+    TrainingConfig[] resolved = new TrainingConfig[numConfigs];
+    int minSamples = Integer.MAX_VALUE;
+    int maxDepth = 0;
+    double minEntropyDecrease = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < numConfigs; c++) {
+      resolved[c] = configs.get(c).resolve(initialEntropy, train.length);
+      minSamples = Math.min(minSamples, resolved[c].getMinSamplesAllowed());
+      maxDepth = Math.max(maxDepth, resolved[c].getMaxDepthAllowed());
+      minEntropyDecrease = Math.min(minEntropyDecrease, resolved[c].getMinEntropyDecreaseAllowed());
+    }
+
+    DecisionTree tree = new DecisionTree();
+    tree.setTrainingConfig(TrainingConfig.builder()
+        .minSamples(minSamples)
+        .maxDepth(maxDepth)
+        .minEntropyDecrease(minEntropyDecrease)
+        .build());
+    tree.setCompileOnFit(false);
+    tree.fit(data, train, 0);
+
+    CategoryDictionary[] dictionaries = new CategoryDictionary[data.getNumFeatures()];
+    for (int f = 0; f < dictionaries.length; f++) {
+      dictionaries[f] = data.getFeatureDictionary(f);
+    }
+    List<Node> nodes = new ArrayList<>();
+    CompiledTree compiled = CompiledTree.compile(tree.getRoot(), dictionaries, data.getLabelDictionary(), nodes);
+    int[] feature = compiled.getFeatureArray();
+    int[] prediction = compiled.getPredictionArray();
+    int[] childBase = compiled.getChildBaseArray();
+    int[] children = compiled.getChildrenArray();
+    int numNodes = compiled.getNumNodes();
+
+    // Ids are breadth-first, so a parent's depth is known before its children's
+    int[] depth = new int[numNodes];
+    for (int id = 0; id < numNodes; id++) {
+      if (feature[id] >= 0) {
+        int base = childBase[id];
+        for (int code = 0; code < dictionaries[feature[id]].size(); code++) {
+          int child = children[base + code];
+          if (child >= 0) {
+            depth[child] = depth[id] + 1;
+          }
+        }
+      }
+    }
+
+    // stops[c][id]: the tree of config c ends at node id, the same check as
+    // DecisionTree.stopReason on the split recorded at that node
+    boolean[][] stops = new boolean[numConfigs][numNodes];
+    for (int id = 0; id < numNodes; id++) {
+      Node node = nodes.get(id);
+      for (int c = 0; c < numConfigs; c++) {
+        stops[c][id] = feature[id] < 0
+            || depth[id] >= resolved[c].getMaxDepthAllowed()
+            || node.getSampleCount() < resolved[c].getMinSamplesAllowed()
+            || node.getInformationGain() < resolved[c].getMinEntropyDecreaseAllowed();
+      }
+    }
+
+    int[][] columns = new int[data.getNumFeatures()][];
+    for (int f = 0; f < columns.length; f++) {
+      columns[f] = data.getColumn(f);
+    }
+    ConfusionMatrix[] matrices = new ConfusionMatrix[numConfigs];
+    for (int c = 0; c < numConfigs; c++) {
+      matrices[c] = new ConfusionMatrix(numClasses);
+    }
+    int[] path = new int[Math.min(maxDepth, numNodes) + 1];
+    for (int row : test) {
+      // Route the row through the grown tree once
+      int length = 0;
+      int node = 0;
+      path[length++] = node;
+      while (feature[node] >= 0) {
+        int child = children[childBase[node] + columns[feature[node]][row]];
+        if (child < 0) {
+          break;
+        }
+        node = child;
+        path[length++] = node;
+      }
+
+      // Each config predicts at the first node of the path where it stops
+      for (int c = 0; c < numConfigs; c++) {
+        boolean[] stop = stops[c];
+        int i = 0;
+        while (i < length - 1 && !stop[path[i]]) {
+          i++;
+        }
+        matrices[c].add(labels[row], prediction[path[i]]);
+      }
+    }
+    return matrices;
+  }
+
+  /**
+   * @return the results of the last search, in the order of its configs
+   */
+  public List<Result> getResults() {
+    return results;
+  }
+
+  /**
+   * @return the result with the highest cross-validated accuracy, the first
+   *         one in grid order on ties
+   */
+  public Result getBest() {
+    if (results == null) {
+      throw new IllegalStateException("No search has been run");
+    }
+    Result best = results.get(0);
+    for (Result result : results) {
+      if (result.getAccuracy() > best.getAccuracy()) {
+        best = result;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * The cross-validated performance of one config.
+   */
+  public static class Result {
+    private final TrainingConfig config;
+    private final ConfusionMatrix matrix;
+    private final double[] foldAccuracies;
+
+    Result(TrainingConfig config, ConfusionMatrix matrix, double[] foldAccuracies) {
+      this.config = config;
+      this.matrix = matrix;
+      this.foldAccuracies = foldAccuracies;
+    }
+
+    public TrainingConfig getConfig() {
+      return config;
+    }
+
+    /**
+     * @return the held-out predictions of every fold, pooled, indexed by the
+     *         codes of the dataset's label dictionary
+     */
+    public ConfusionMatrix getMatrix() {
+      return matrix;
+    }
+
+    /**
+     * @return the accuracy over the held-out rows of all folds
+     */
+    public double getAccuracy() {
+      return matrix.getAccuracy();
+    }
+
+    public double[] getFoldAccuracies() {
+      return foldAccuracies.clone();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s accuracy=%.4f", config, getAccuracy());
+    }
+  }
+}
@@ -0,0 +1,497 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.Node;
+import com.stegrandom.utils.TreeVisualizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An incremental decision tree (Hoeffding tree / VFDT) for categorical
+ * features, using the same information-gain criterion as {@link DecisionTree}.
+ * 
+ * Rows are learned one at a time and then discarded. Each leaf keeps only
+ * value x class counts per feature. Every {@code gracePeriod} rows a leaf checks
+ * whether the best feature beats the runner-up by more than the Hoeffding
+ * bound, and if so it becomes a multiway split on that feature. Memory depends
+ * on the number of nodes and the category counts, never on the number of rows
+ * seen: the tree stops growing at {@code maxNodes}, and the counts of every
+ * node are halved before they can overflow.
+ * 
+ * A stream cannot be scanned for quantiles before learning, so numeric
+ * values are not binned here: every distinct value is its own category.
+ * Continuous columns should be discretized before they are streamed in, or
+ * the dictionaries and child arrays grow with every new value.
+ * 
+ * Learning is not thread-safe. {@link #getPredictor()} returns an immutable
+ * snapshot that can be shared while learning continues.
+ */
+public class HoeffdingTree {
+  public static final int DEFAULT_GRACE_PERIOD = 200;
+  public static final double DEFAULT_DELTA = 1e-7;
+  public static final double DEFAULT_TIE_THRESHOLD = 0.05;
+  public static final int DEFAULT_MAX_NODES = 10_000;
+  public static final int DEFAULT_MAX_DEPTH = 20;
+
+  // Counts are halved once a node has seen this many rows
+  private static final int COUNT_LIMIT = 1 << 30;
+
+  private final CategoryDictionary[] featureDictionaries;
+  private final CategoryDictionary labelDictionary;
+  private final LearningNode root;
+  private final int[] codes;
+  private String[] featureNames;
+  private int gracePeriod = DEFAULT_GRACE_PERIOD;
+  private double delta = DEFAULT_DELTA;
+  private double tieThreshold = DEFAULT_TIE_THRESHOLD;
+  private int maxNodes = DEFAULT_MAX_NODES;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+  private int numNodes;
+  private long rowsSeen;
+
+  /**
+   * @param numFeatures the number of feature columns of every row
+   */
+  public HoeffdingTree(int numFeatures) {
+    this.featureDictionaries = new CategoryDictionary[numFeatures];
+    for (int f = 0; f < numFeatures; f++) {
+      featureDictionaries[f] = new CategoryDictionary();
+    }
+    this.labelDictionary = new CategoryDictionary();
+    this.codes = new int[numFeatures];
+    this.root = new LearningNode(0, numFeatures);
+    this.numNodes = 1;
+  }
+
+  public void setFeatureNames(String[] names) {
+    this.featureNames = names;
+  }
+
+  /**
+   * @param rows the number of rows a leaf must see between split attempts
+   */
+  public void setGracePeriod(int rows) {
+    this.gracePeriod = rows;
+  }
+
+  /**
+   * @param delta the allowed probability of choosing a different split than
+   *              an infinite sample would
+   */
+  public void setDelta(double delta) {
+    this.delta = delta;
+  }
+
+  /**
+   * @param tieThreshold split anyway once the Hoeffding bound drops below
+   *                     this, even if the top two features are still tied
+   */
+  public void setTieThreshold(double tieThreshold) {
+    this.tieThreshold = tieThreshold;
+  }
+
+  public void setMaxNodes(int maxNodes) {
+    this.maxNodes = maxNodes;
+  }
+
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  public long getRowsSeen() {
+    return rowsSeen;
+  }
+
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Learns from one sample.
+   * 
+   * @param features the feature values of the sample
+   * @param label    the class label of the sample
+   */
+  public void learn(String[] features, String label) {
+    if (features.length != codes.length) {
+      throw new IllegalArgumentException(
+          String.format("Expected %d features but found %d", codes.length, features.length));
+    }
+    for (int f = 0; f < codes.length; f++) {
+      codes[f] = featureDictionaries[f].encode(features[f]);
+    }
+    learn(codes, labelDictionary.encode(label));
+  }
+
+  /**
+   * Learns from a mini-batch of samples, in order.
+   * 
+   * @param features the feature rows of the batch
+   * @param labels   the class label of each row
+   */
+  public void learn(String[][] features, String[] labels) {
+    if (features.length != labels.length) {
+      throw new IllegalArgumentException("Number of samples in features and target must match");
+    }
+    for (int i = 0; i < features.length; i++) {
+      learn(features[i], labels[i]);
+    }
+  }
+
+  /**
+   * Learns from every row of a stream, such as {@code DataLoader.stream()}.
+   * 
+   * @param rows         rows holding the features and the label
+   * @param targetColumn the index of the label within each row
+   */
+  public void learn(Stream<String[]> rows, int targetColumn) {
+    String[] features = new String[codes.length];
+    Iterator<String[]> iterator = rows.iterator();
+    while (iterator.hasNext()) {
+      String[] row = iterator.next();
+      if (row.length != codes.length + 1) {
+        throw new IllegalArgumentException(
+            String.format("Expected %d columns but found %d", codes.length + 1, row.length));
+      }
+      System.arraycopy(row, 0, features, 0, targetColumn);
+      System.arraycopy(row, targetColumn + 1, features, targetColumn, codes.length - targetColumn);
+      learn(features, row[targetColumn]);
+    }
+  }
+
+  private void learn(int[] rowCodes, int label) {
+    rowsSeen++;
+    LearningNode node = root;
+    while (node.splitFeature >= 0) {
+      node.addClass(label);
+      LearningNode child = node.child(rowCodes[node.splitFeature]);
+      if (child == null) {
+        if (numNodes >= maxNodes) {
+          // No room for a leaf: the row only counts towards the class counts
+          // of this node and its ancestors, which is also where predict
+          // stops for the unseen category, and no leaf learns from it
+          return;
+        }
+        // A category first seen after the split gets its own new leaf
+        child = new LearningNode(node.depth + 1, codes.length);
+        node.setChild(rowCodes[node.splitFeature], child);
+        numNodes++;
+      }
+      node = child;
+    }
+
+    node.learn(rowCodes, label);
+    if (node.seenSinceCheck >= gracePeriod) {
+      node.seenSinceCheck = 0;
+      attemptSplit(node);
+    }
+  }
+
+  /**
+   * Scores the features on the rows the leaf has gathered statistics for.
+   * Class counts a child inherited from its parent's split are not among
+   * them, so they weigh neither the split entropies nor the bound.
+   */
+  private void attemptSplit(LearningNode leaf) {
+    int total = leaf.statTotal;
+    if (leaf.isPure() || leaf.depth >= maxDepth || numNodes >= maxNodes) {
+      return;
+    }
+
+    double entropy = InformationTheoryMetrics.calculateEntropyFromCounts(
+        leaf.statCounts, 0, leaf.statCounts.length, total);
+    double bestGain = Double.NEGATIVE_INFINITY;
+    double secondGain = 0.0;
+    int bestFeature = -1;
+    for (int f = 0; f < codes.length; f++) {
+      double gain = entropy - leaf.entropyAfterSplit(f, total);
+      if (gain > bestGain) {
+        secondGain = Math.max(secondGain, bestGain);
+        bestGain = gain;
+        bestFeature = f;
+      } else if (gain > secondGain) {
+        secondGain = gain;
+      }
+    }
+    if (bestFeature < 0 || bestGain <= 0) {
+      return;
+    }
+
+    double range = Math.log(Math.max(2, labelDictionary.size())) / Math.log(2);
+    double bound = Math.sqrt(range * range * Math.log(1 / delta) / (2.0 * total));
+    if ((bestGain - secondGain > bound || bound < tieThreshold)
+        && numNodes + leaf.numChildren(bestFeature) <= maxNodes) {
+      numNodes += leaf.split(bestFeature, codes.length);
+    }
+  }
+
+  /**
+   * Predicts the class label of one row with the current tree.
+   * Unseen categories stop at the last matching node.
+   * 
+   * @param row the feature values of the sample
+   * @return the predicted class label, or null before any row was learned
+   */
+  public String predict(String[] row) {
+    LearningNode node = root;
+    while (node.splitFeature >= 0) {
+      int code = featureDictionaries[node.splitFeature].codeOf(row[node.splitFeature]);
+      LearningNode child = code >= 0 ? node.child(code) : null;
+      if (child == null) {
+        break;
+      }
+      node = child;
+    }
+    int majority = node.majorityClass();
+    return majority >= 0 ? labelDictionary.decode(majority) : null;
+  }
+
+  /**
+   * Copies the current tree into plain {@link Node}s, each carrying its
+   * class counts and majority class.
+   * 
+   * @return the root of the copy
+   */
+  public Node toNode() {
+    return toNode(root);
+  }
+
+  private Node toNode(LearningNode learningNode) {
+    Node node = new Node();
+    node.setClassCounts(Arrays.copyOf(learningNode.classCounts, labelDictionary.size()));
+    int majority = learningNode.majorityClass();
+    node.setPredictedClass(majority >= 0 ? labelDictionary.decode(majority) : null);
+    if (learningNode.splitFeature >= 0) {
+      CategoryDictionary dictionary = featureDictionaries[learningNode.splitFeature];
+      Map<String, Node> children = new HashMap<>();
+      for (int code = 0; code < learningNode.children.length; code++) {
+        if (learningNode.children[code] != null) {
+          children.put(dictionary.decode(code), toNode(learningNode.children[code]));
+        }
+      }
+      node.setSplitFeatureIndex(learningNode.splitFeature);
+      node.setChildren(children);
+    }
+    return node;
+  }
+
+  /**
+   * Compiles a snapshot of the current tree into an immutable predictor.
+   * 
+   * @return the snapshot predictor
+   * @throws IllegalStateException if no row has been learned yet
+   */
+  public CompiledTree getPredictor() {
+    if (rowsSeen == 0) {
+      throw new IllegalStateException("The tree must learn at least one row before it can be compiled");
+    }
+    return CompiledTree.compile(toNode(), featureDictionaries, labelDictionary);
+  }
+
+  public void printTree() {
+    TreeVisualizer.printTree(toNode(), featureNames, "Hoeffding Tree Structure");
+  }
+
+  /**
+   * A node of the growing tree. Leaves hold per-feature value x class counts
+   * in stats[feature][value][class], and the class counts of the rows in
+   * stats; they are dropped once the leaf splits. The node's classCounts
+   * also include the rows its parent saw for its value, so a new leaf
+   * predicts sensibly before it has learned any row itself.
+   */
+  private static class LearningNode {
+    final int depth;
+    int[] classCounts = new int[2];
+    int count;
+    int[][][] stats;
+    int[] statCounts = new int[2];
+    int statTotal;
+    int seenSinceCheck;
+    int splitFeature = -1;
+    LearningNode[] children;
+
+    LearningNode(int depth, int numFeatures) {
+      this.depth = depth;
+      this.stats = new int[numFeatures][][];
+    }
+
+    void addClass(int label) {
+      if (count >= COUNT_LIMIT) {
+        count = halve(classCounts);
+      }
+      if (label >= classCounts.length) {
+        classCounts = Arrays.copyOf(classCounts, Math.max(label + 1, 2 * classCounts.length));
+      }
+      classCounts[label]++;
+      count++;
+    }
+
+    void learn(int[] rowCodes, int label) {
+      if (statTotal >= COUNT_LIMIT) {
+        halveStats();
+      }
+      addClass(label);
+      if (label >= statCounts.length) {
+        statCounts = Arrays.copyOf(statCounts, Math.max(label + 1, 2 * statCounts.length));
+      }
+      statCounts[label]++;
+      statTotal++;
+      for (int f = 0; f < rowCodes.length; f++) {
+        int value = rowCodes[f];
+        int[][] featureStats = stats[f];
+        if (featureStats == null || value >= featureStats.length) {
+          featureStats = featureStats == null
+              ? new int[Math.max(value + 1, 4)][]
+              : Arrays.copyOf(featureStats, Math.max(value + 1, 2 * featureStats.length));
+          stats[f] = featureStats;
+        }
+        int[] valueCounts = featureStats[value];
+        if (valueCounts == null || label >= valueCounts.length) {
+          valueCounts = valueCounts == null
+              ? new int[Math.max(label + 1, classCounts.length)]
+              : Arrays.copyOf(valueCounts, Math.max(label + 1, classCounts.length));
+          featureStats[value] = valueCounts;
+        }
+        valueCounts[label]++;
+      }
+      seenSinceCheck++;
+    }
+
+    double entropyAfterSplit(int feature, int total) {
+      int[][] featureStats = stats[feature];
+      double weightedEntropy = 0.0;
+      if (featureStats == null) {
+        return weightedEntropy;
+      }
+      for (int[] valueCounts : featureStats) {
+        if (valueCounts == null) {
+          continue;
+        }
+        int valueTotal = 0;
+        for (int count : valueCounts) {
+          valueTotal += count;
+        }
+        if (valueTotal > 0) {
+          weightedEntropy += (double) valueTotal / total
+              * InformationTheoryMetrics.calculateEntropyFromCounts(valueCounts, 0, valueCounts.length, valueTotal);
+        }
+      }
+      return weightedEntropy;
+    }
+
+    /**
+     * @return the number of children a split on the feature would create
+     */
+    int numChildren(int feature) {
+      int count = 0;
+      if (stats[feature] != null) {
+        for (int[] valueCounts : stats[feature]) {
+          if (valueCounts != null) {
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Turns this leaf into a split on the feature, seeding each child's class
+     * counts from the leaf's statistics.
+     * 
+     * @return the number of children created
+     */
+    int split(int feature, int numFeatures) {
+      int[][] featureStats = stats[feature];
+      children = new LearningNode[featureStats.length];
+      int created = 0;
+      for (int value = 0; value < featureStats.length; value++) {
+        if (featureStats[value] != null) {
+          LearningNode child = new LearningNode(depth + 1, numFeatures);
+          child.classCounts = featureStats[value].clone();
+          child.count = sum(child.classCounts);
+          children[value] = child;
+          created++;
+        }
+      }
+      splitFeature = feature;
+      stats = null;
+      statCounts = null;
+      return created;
+    }
+
+    LearningNode child(int code) {
+      return code < children.length ? children[code] : null;
+    }
+
+    void setChild(int code, LearningNode child) {
+      if (code >= children.length) {
+        children = Arrays.copyOf(children, Math.max(code + 1, 2 * children.length));
+      }
+      children[code] = child;
+    }
+
+    private static int sum(int[] counts) {
+      int total = 0;
+      for (int count : counts) {
+        total += count;
+      }
+      return total;
+    }
+
+    /**
+     * @return whether the rows in stats all have the same class
+     */
+    boolean isPure() {
+      int nonZero = 0;
+      for (int count : statCounts) {
+        if (count > 0) {
+          nonZero++;
+        }
+      }
+      return nonZero <= 1;
+    }
+
+    int majorityClass() {
+      int majorityClass = -1;
+      int maxCount = 0;
+      for (int classCode = 0; classCode < classCounts.length; classCode++) {
+        if (classCounts[classCode] > maxCount) {
+          maxCount = classCounts[classCode];
+          majorityClass = classCode;
+        }
+      }
+      return majorityClass;
+    }
+
+    /**
+     * Halves the counts in place.
+     * 
+     * @return their new total
+     */
+    private static int halve(int[] counts) {
+      for (int c = 0; c < counts.length; c++) {
+        counts[c] >>= 1;
+      }
+      return sum(counts);
+    }
+
+    private void halveStats() {
+      statTotal = halve(statCounts);
+      for (int[][] featureStats : stats) {
+        if (featureStats == null) {
+          continue;
+        }
+        for (int[] valueCounts : featureStats) {
+          if (valueCounts == null) {
+            continue;
+          }
+          halve(valueCounts);
+        }
+      }
+    }
+  }
+}
@@ -1,68 +1,139 @@
 package com.stegrandom.model;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+import com.stegrandom.core.CategoryDictionary;
+
+/**
+ * Entropy, information gain and classification metrics.
+ * 
+ * Entropies are computed from class counts with the identity
+ * H = (n log2 n - sum(c log2 c)) / n, where n log2 n is read from a lookup
+ * table for small counts. The weighted entropy of a split follows the same
+ * way from a value x class table in a single flat pass, without any
+ * per-call allocation, division per class or call to Math.log on the hot
+ * path.
+ */
 public class InformationTheoryMetrics {
+  // Counts below this size read n log2 n from the table; 64 KB of doubles
+  public static final int NLOG2N_TABLE_SIZE = 1 << 13;
+
+  private static final double LN_2 = Math.log(2);
+  private static final double[] NLOG2N = new double[NLOG2N_TABLE_SIZE];
+
+  static {
+    for (int n = 1; n < NLOG2N_TABLE_SIZE; n++) {
+      NLOG2N[n] = n * (Math.log(n) / LN_2);
+    }
+  }
+
+  /**
+   * @return n log2 n, with 0 log2 0 taken as 0
+   */
+  public static double nLog2n(int n) {
+    return n < NLOG2N_TABLE_SIZE ? NLOG2N[n] : n * (Math.log(n) / LN_2);
+  }
 
   // Calculate entropy for a dataset
   public static double calculateEntropy(String[][] x, String[] y) {
-    Map<String, Integer> labelCounts = new HashMap<>();
-    for (String label : y) {
-      labelCounts.put(label, labelCounts.getOrDefault(label, 0) + 1);
+    EncodedLabels labels = encodeLabels(y);
+    return calculateEntropy(labels.labels, labels.numClasses);
+  }
+
+  // Calculate entropy for dictionary-encoded labels
+  public static double calculateEntropy(int[] y, int numClasses) {
+    int[] labelCounts = new int[numClasses];
+    for (int label : y) {
+      labelCounts[label]++;
     }
+    return calculateEntropyFromCounts(labelCounts, 0, numClasses, y.length);
+  }
 
-    double entropy = 0.0;
-    int total = y.length;
-    for (int count : labelCounts.values()) {
-      double probability = (double) count / total;
-      entropy -= probability * (Math.log(probability) / Math.log(2));
+  // Calculate entropy of a class distribution given as counts
+  public static double calculateEntropy(int[] classCounts) {
+    int total = 0;
+    for (int count : classCounts) {
+      total += count;
     }
-    return entropy;
+    return calculateEntropyFromCounts(classCounts, 0, classCounts.length, total);
   }
 
   // Calculate information gain
   public static double calculateInformationGain(int featureIndex, String[][] features, String[] target) {
-    double beforeSplitEntropy = calculateEntropy(features, target);
+    return calculateEntropy(features, target) - calculateEntropyAfterSplit(features, target, featureIndex);
+  }
 
-    Map<String, List<String>> subsets = new HashMap<>();
-    for (int i = 0; i < features.length; i++) {
-      String featureValue = features[i][featureIndex];
-      subsets.putIfAbsent(featureValue, new ArrayList<>());
-      subsets.get(featureValue).add(target[i]);
+  // Calculate entropy after a split
+  public static double calculateEntropyAfterSplit(String[][] x, String[] y, int featureIndex) {
+    EncodedLabels labels = encodeLabels(y);
+    CategoryDictionary values = new CategoryDictionary();
+    int[] column = new int[x.length];
+    for (int i = 0; i < x.length; i++) {
+      column[i] = values.encode(x[i][featureIndex]);
     }
+    return calculateEntropyAfterSplit(column, labels.labels, values.size(), labels.numClasses);
+  }
 
-    double afterSplitEntropy = 0.0;
-    int totalSamples = target.length;
-    for (List<String> subset : subsets.values()) {
-      String[] subsetLabels = subset.toArray(new String[0]);
-      double subsetProbability = (double) subset.size() / totalSamples;
-      afterSplitEntropy += subsetProbability * calculateEntropy(new String[0][0], subsetLabels);
+  // Calculate entropy after a split on a dictionary-encoded feature column
+  public static double calculateEntropyAfterSplit(int[] column, int[] y, int cardinality, int numClasses) {
+    int[] subsetCounts = new int[cardinality * numClasses];
+    for (int i = 0; i < column.length; i++) {
+      subsetCounts[column[i] * numClasses + y[i]]++;
     }
+    return calculateWeightedEntropy(subsetCounts, 0, cardinality, numClasses, y.length);
+  }
 
-    return beforeSplitEntropy - afterSplitEntropy;
+  // Calculate entropy of a class distribution given as counts[offset .. offset + numClasses)
+  public static double calculateEntropyFromCounts(int[] counts, int offset, int numClasses, int total) {
+    if (total == 0) {
+      return 0.0;
+    }
+    double sum = 0.0;
+    for (int i = offset; i < offset + numClasses; i++) {
+      sum += nLog2n(counts[i]);
+    }
+    return (nLog2n(total) - sum) / total;
   }
 
-  // Calculate entropy after a split
-  public static double calculateEntropyAfterSplit(String[][] x, String[] y, int featureIndex) {
-    Map<String, List<String>> subsets = new HashMap<>();
+  // Calculate weighted entropy of a value x class contingency table, stored
+  // row-major as counts[offset + value * numClasses + class]. Since
+  // sum(n_v / n * H_v) = sum(n_v log2 n_v - sum(c log2 c)) / n, each row
+  // costs one table lookup per cell and empty rows contribute nothing.
+  public static double calculateWeightedEntropy(int[] counts, int offset, int cardinality,
+      int numClasses, int total) {
+    if (total == 0) {
+      return 0.0;
+    }
+    double sum = 0.0;
+    int end = offset + cardinality * numClasses;
+    for (int row = offset; row < end; row += numClasses) {
+      int rowTotal = 0;
+      double cells = 0.0;
+      for (int i = row; i < row + numClasses; i++) {
+        int count = counts[i];
+        rowTotal += count;
+        cells += nLog2n(count);
+      }
+      sum += nLog2n(rowTotal) - cells;
+    }
+    return sum / total;
+  }
 
-    for (int i = 0; i < x.length; i++) {
-      String featureValue = x[i][featureIndex];
-      subsets.putIfAbsent(featureValue, new ArrayList<>());
-      subsets.get(featureValue).add(y[i]);
+  private static EncodedLabels encodeLabels(String[] y) {
+    CategoryDictionary dictionary = new CategoryDictionary();
+    int[] labels = new int[y.length];
+    for (int i = 0; i < y.length; i++) {
+      labels[i] = dictionary.encode(y[i]);
     }
+    return new EncodedLabels(labels, dictionary.size());
+  }
 
-    double totalEntropy = 0.0;
-    int totalSamples = y.length;
-    for (List<String> subset : subsets.values()) {
-      String[] subsetLabels = subset.toArray(new String[0]);
-      double subsetProbability = (double) subset.size() / totalSamples;
-      totalEntropy += subsetProbability * calculateEntropy(new String[0][0], subsetLabels);
+  private static class EncodedLabels {
+    final int[] labels;
+    final int numClasses;
+
+    EncodedLabels(int[] labels, int numClasses) {
+      this.labels = labels;
+      this.numClasses = numClasses;
     }
-    return totalEntropy;
   }
 
   // Calculate accuracy
@@ -75,39 +146,31 @@ public class InformationTheoryMetrics {
     return (double) correct / actualValues.length;
   }
 
-  // Calculate precision
+  // Calculate precision, with 1 as the positive class
   public static double calculatePrecision(double[] actualValues, double[] predictedValues) {
-    int truePositive = 0, falsePositive = 0;
-    for (int i = 0; i < actualValues.length; i++) {
-      if (predictedValues[i] == 1) {
-        if (actualValues[i] == 1)
-          truePositive++;
-        else
-          falsePositive++;
-      }
-    }
-    return (double) truePositive / (truePositive + falsePositive);
+    return binaryMatrix(actualValues, predictedValues).getPrecision(1);
   }
 
-  // Calculate recall
+  // Calculate recall, with 1 as the positive class
   public static double calculateRecall(double[] actualValues, double[] predictedValues) {
-    int truePositive = 0, falseNegative = 0;
-    for (int i = 0; i < actualValues.length; i++) {
-      if (actualValues[i] == 1) {
-        if (predictedValues[i] == 1)
-          truePositive++;
-        else
-          falseNegative++;
-      }
-    }
-    return (double) truePositive / (truePositive + falseNegative);
+    return binaryMatrix(actualValues, predictedValues).getRecall(1);
   }
 
-  // Calculate F-Score
+  // Calculate F-Score from a single pass over the values
   public static double calculateFScore(double[] actualValues, double[] predictedValues) {
-    double precision = calculatePrecision(actualValues, predictedValues);
-    double recall = calculateRecall(actualValues, predictedValues);
-    return 2 * (precision * recall) / (precision + recall);
+    return binaryMatrix(actualValues, predictedValues).getFScore(1);
+  }
+
+  /**
+   * Counts 0/1 values into a two-class {@link ConfusionMatrix}, treating any
+   * value other than 1 as the negative class.
+   */
+  private static ConfusionMatrix binaryMatrix(double[] actualValues, double[] predictedValues) {
+    ConfusionMatrix matrix = new ConfusionMatrix(2);
+    for (int i = 0; i < actualValues.length; i++) {
+      matrix.add(actualValues[i] == 1 ? 1 : 0, predictedValues[i] == 1 ? 1 : 0);
+    }
+    return matrix;
   }
 
 }
\ No newline at end of file
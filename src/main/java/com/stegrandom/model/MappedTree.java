@@ -0,0 +1,97 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+
+import java.nio.IntBuffer;
+
+/**
+ * A predictor that reads its node arrays straight from a memory-mapped model
+ * file written by {@link ModelFile}. It follows the same layout and traversal
+ * as {@link CompiledTree}, but never copies the arrays onto the heap.
+ * 
+ * All state is read-only after construction, and only absolute buffer reads
+ * are used, so one instance can be shared between threads.
+ */
+public final class MappedTree implements Predictor {
+  private final IntBuffer feature;
+  private final IntBuffer prediction;
+  private final IntBuffer childBase;
+  private final IntBuffer children;
+  private final int[] cardinality;
+  private final CategoryDictionary[] featureDictionaries;
+  private final String[] labels;
+
+  MappedTree(IntBuffer feature, IntBuffer prediction, IntBuffer childBase, IntBuffer children,
+      CategoryDictionary[] featureDictionaries, CategoryDictionary labelDictionary) {
+    this.feature = feature;
+    this.prediction = prediction;
+    this.childBase = childBase;
+    this.children = children;
+    this.featureDictionaries = featureDictionaries;
+    this.cardinality = new int[featureDictionaries.length];
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      cardinality[f] = featureDictionaries[f].size();
+    }
+    this.labels = new String[labelDictionary.size()];
+    for (int c = 0; c < labels.length; c++) {
+      labels[c] = labelDictionary.decode(c);
+    }
+  }
+
+  /**
+   * Predicts the class code of a pre-encoded row.
+   * 
+   * @param codes the dictionary code of every feature
+   * @return the predicted class code
+   */
+  public int predictCode(int[] codes) {
+    int node = 0;
+    int f;
+    while ((f = feature.get(node)) >= 0) {
+      int code = codes[f];
+      if (code < 0 || code >= cardinality[f]) {
+        break;
+      }
+      int child = children.get(childBase.get(node) + code);
+      if (child < 0) {
+        break;
+      }
+      node = child;
+    }
+    return prediction.get(node);
+  }
+
+  @Override
+  public String predict(String[] row) {
+    int node = 0;
+    int f;
+    while ((f = feature.get(node)) >= 0) {
+      int code = featureDictionaries[f].codeOf(row[f]);
+      if (code < 0) {
+        break;
+      }
+      int child = children.get(childBase.get(node) + code);
+      if (child < 0) {
+        break;
+      }
+      node = child;
+    }
+    return labels[prediction.get(node)];
+  }
+
+  public int getNumNodes() {
+    return feature.limit();
+  }
+
+  public int getNumFeatures() {
+    return featureDictionaries.length;
+  }
+
+  public CategoryDictionary getFeatureDictionary(int feature) {
+    return featureDictionaries[feature];
+  }
+
+  public String decodeLabel(int classCode) {
+    return labels[classCode];
+  }
+}
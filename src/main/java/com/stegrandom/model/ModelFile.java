@@ -0,0 +1,261 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.NumericBins;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the versioned binary model format.
+ * 
+ * Layout, all values little-endian:
+ * 
+ * 1) header: magic, version, numNodes, numChildSlots, numFeatures, numClasses
+ * 2) node arrays: feature[numNodes], prediction[numNodes], childBase[numNodes]
+ *    and children[numChildSlots], as in {@link CompiledTree}
+ * 3) one dictionary per feature, then the label dictionary; each is a count
+ *    followed by length-prefixed UTF-8 values in code order, or for numeric
+ *    bins the negated number of bins followed by their double upper bounds
+ *    (since version 2)
+ * 
+ * The node arrays come first so they stay 4-byte aligned and can be read in
+ * place from a memory-mapped file.
+ */
+public class ModelFile {
+  public static final int MAGIC = 0x44545245; // "DTRE"
+  public static final int VERSION = 2;
+  static final int HEADER_INTS = 6;
+
+  private ModelFile() {
+  }
+
+  /**
+   * Writes a compiled tree to a file, replacing any existing content.
+   * 
+   * @param tree the compiled tree to save
+   * @param path the file to write
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(CompiledTree tree, Path path) throws IOException {
+    int[] feature = tree.getFeatureArray();
+    int[] prediction = tree.getPredictionArray();
+    int[] childBase = tree.getChildBaseArray();
+    int[] children = tree.getChildrenArray();
+
+    // Numeric features keep their bin bounds, everything else its values
+    byte[][][] dictionaries = new byte[tree.getNumFeatures() + 1][][];
+    double[][] bounds = new double[tree.getNumFeatures() + 1][];
+    for (int f = 0; f < tree.getNumFeatures(); f++) {
+      CategoryDictionary dictionary = tree.getFeatureDictionary(f);
+      if (dictionary instanceof NumericBins) {
+        bounds[f] = ((NumericBins) dictionary).getUpperBounds();
+      } else {
+        dictionaries[f] = toBytes(dictionary);
+      }
+    }
+    dictionaries[tree.getNumFeatures()] = toBytes(tree.getLabelDictionary());
+
+    long size = 4L * (HEADER_INTS + 3L * feature.length + children.length);
+    for (int i = 0; i < dictionaries.length; i++) {
+      size += 4;
+      if (bounds[i] != null) {
+        size += 8L * bounds[i].length;
+        continue;
+      }
+      for (byte[] value : dictionaries[i]) {
+        size += 4 + value.length;
+      }
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Model is too large for the binary format: " + size + " bytes");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION)
+        .putInt(feature.length).putInt(children.length)
+        .putInt(tree.getNumFeatures()).putInt(tree.getLabelDictionary().size());
+    IntBuffer ints = buffer.asIntBuffer();
+    ints.put(feature).put(prediction).put(childBase).put(children);
+    buffer.position(buffer.position() + 4 * ints.position());
+    for (int i = 0; i < dictionaries.length; i++) {
+      if (bounds[i] != null) {
+        buffer.putInt(-bounds[i].length);
+        for (double bound : bounds[i]) {
+          buffer.putDouble(bound);
+        }
+        continue;
+      }
+      buffer.putInt(dictionaries[i].length);
+      for (byte[] value : dictionaries[i]) {
+        buffer.putInt(value.length).put(value);
+      }
+    }
+    buffer.flip();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  /**
+   * Memory-maps a model file. The node arrays are read directly from the
+   * mapping, so loading costs one pass over the (small) dictionaries and the
+   * pages are shared with every other process mapping the same file.
+   * 
+   * @param path the model file
+   * @return a predictor backed by the mapped file
+   * @throws IOException if the file cannot be read or is not a valid model
+   */
+  public static MappedTree map(Path path) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+    if (buffer.remaining() < 4 * HEADER_INTS || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a decision tree model file: " + path);
+    }
+    int version = buffer.getInt(4);
+    if (version < 1 || version > VERSION) {
+      throw new IOException("Unsupported model file version " + version + " in " + path);
+    }
+    int numNodes = buffer.getInt(8);
+    int numChildSlots = buffer.getInt(12);
+    int numFeatures = buffer.getInt(16);
+
+    int offset = 4 * HEADER_INTS;
+    if (numNodes <= 0 || numChildSlots < 0 || numFeatures < 0
+        || offset + 4L * (3L * numNodes + numChildSlots) > buffer.limit()) {
+      throw new IOException("Truncated or corrupt model file: " + path);
+    }
+    IntBuffer feature = intSlice(buffer, offset, numNodes);
+    offset += 4 * numNodes;
+    IntBuffer prediction = intSlice(buffer, offset, numNodes);
+    offset += 4 * numNodes;
+    IntBuffer childBase = intSlice(buffer, offset, numNodes);
+    offset += 4 * numNodes;
+    IntBuffer children = intSlice(buffer, offset, numChildSlots);
+    offset += 4 * numChildSlots;
+
+    buffer.position(offset);
+    // Every dictionary takes at least its 4-byte count
+    if (4L * numFeatures + 4 > buffer.remaining()) {
+      throw new IOException("Truncated or corrupt model file: " + path);
+    }
+    CategoryDictionary[] featureDictionaries = new CategoryDictionary[numFeatures];
+    CategoryDictionary labelDictionary;
+    try {
+      for (int f = 0; f < numFeatures; f++) {
+        featureDictionaries[f] = readDictionary(buffer, path);
+      }
+      labelDictionary = readDictionary(buffer, path);
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      throw new IOException("Truncated or corrupt model file: " + path, e);
+    }
+    if (!isValidTree(feature, prediction, childBase, children, featureDictionaries, labelDictionary.size())) {
+      throw new IOException("Truncated or corrupt model file: " + path);
+    }
+
+    return new MappedTree(feature, prediction, childBase, children, featureDictionaries, labelDictionary);
+  }
+
+  /**
+   * Checks once that every traversal stays inside the arrays and ends: each
+   * split reads an existing feature and owns one slot per category of it,
+   * every child comes after its parent in breadth-first order, and every
+   * prediction is a known label.
+   */
+  private static boolean isValidTree(IntBuffer feature, IntBuffer prediction, IntBuffer childBase,
+      IntBuffer children, CategoryDictionary[] featureDictionaries, int numLabels) {
+    int numNodes = feature.limit();
+    int numChildSlots = children.limit();
+    for (int node = 0; node < numNodes; node++) {
+      int classCode = prediction.get(node);
+      if (classCode < 0 || classCode >= numLabels) {
+        return false;
+      }
+      int f = feature.get(node);
+      if (f < 0) {
+        continue;
+      }
+      if (f >= featureDictionaries.length) {
+        return false;
+      }
+      int base = childBase.get(node);
+      int cardinality = featureDictionaries[f].size();
+      if (base < 0 || (long) base + cardinality > numChildSlots) {
+        return false;
+      }
+      for (int slot = base; slot < base + cardinality; slot++) {
+        int child = children.get(slot);
+        if (child >= numNodes || (child >= 0 && child <= node)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static IntBuffer intSlice(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    view.position(offset).limit(offset + 4 * length);
+    return view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+  }
+
+  private static byte[][] toBytes(CategoryDictionary dictionary) {
+    byte[][] values = new byte[dictionary.size()][];
+    for (int code = 0; code < values.length; code++) {
+      values[code] = dictionary.decode(code).getBytes(StandardCharsets.UTF_8);
+    }
+    return values;
+  }
+
+  /**
+   * Reads one dictionary, checking every count and length against the bytes
+   * left before allocating for it.
+   */
+  private static CategoryDictionary readDictionary(ByteBuffer buffer, Path path) throws IOException {
+    int size = buffer.getInt();
+    if (size < 0) {
+      if (-(long) size * 8 > buffer.remaining()) {
+        throw new IOException("Truncated or corrupt model file: " + path);
+      }
+      double[] bounds = new double[-size];
+      for (int bin = 0; bin < bounds.length; bin++) {
+        bounds[bin] = buffer.getDouble();
+      }
+      return new NumericBins(bounds);
+    }
+    if ((long) size * 4 > buffer.remaining()) {
+      throw new IOException("Truncated or corrupt model file: " + path);
+    }
+    CategoryDictionary dictionary = new CategoryDictionary();
+    for (int code = 0; code < size; code++) {
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        throw new IOException("Truncated or corrupt model file: " + path);
+      }
+      byte[] value = new byte[length];
+      buffer.get(value);
+      dictionary.encode(new String(value, StandardCharsets.UTF_8));
+    }
+    if (dictionary.size() != size) {
+      // Repeated values would shift every later code
+      throw new IOException("Truncated or corrupt model file: " + path);
+    }
+    return dictionary.toImmutable();
+  }
+}
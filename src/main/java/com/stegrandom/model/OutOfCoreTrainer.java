@@ -0,0 +1,380 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.Node;
+import com.stegrandom.core.NumericBins;
+import com.stegrandom.core.TrainingConfig;
+import com.stegrandom.utils.ColumnStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grows an exact decision tree over a {@link ColumnStore} that does not fit
+ * in memory, one level at a time.
+ * 
+ * The node each row currently belongs to is kept in an on-disk assignment
+ * file of one int per row (-1 once the row has reached a leaf). For each level
+ * the trainer makes sequential passes over the columns, building the value x
+ * class counts of every open node, picks splits with exactly the same rules
+ * as {@link DecisionTree}, and then rewrites the assignment file in one more
+ * pass. When the counts of all open nodes would exceed the memory budget, the
+ * level is processed in several passes over subsets of the nodes.
+ */
+class OutOfCoreTrainer {
+  private final ColumnStore store;
+  private final long memoryBudget;
+  private final TrainingConfig limits;
+  private final TrainingReport report;
+  private final int numFeatures;
+  private final int numClasses;
+  private final int numRows;
+  private final int[] cardinality;
+  private final int[] tableOffset; // start of each feature's table in a node's counts
+  private final int tableSize;
+  private final int blockRows;
+  private Path assignmentFile;
+  private Path nextAssignmentFile;
+
+  private final List<Node> nodes = new ArrayList<>();
+  private final List<int[]> childIds = new ArrayList<>(); // per node id, indexed by code
+  private final List<Integer> splitFeature = new ArrayList<>();
+  private final boolean[] numeric;
+  private final ThresholdScan scan;
+  private TrainingConfig config;
+
+  /**
+   * @param report the report to record nodes in, or null
+   */
+  OutOfCoreTrainer(ColumnStore store, long memoryBudget, TrainingConfig limits, TrainingReport report) {
+    if (store.getNumRows() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Out-of-core training supports at most "
+          + Integer.MAX_VALUE + " rows");
+    }
+    this.store = store;
+    this.memoryBudget = memoryBudget;
+    this.limits = limits;
+    this.report = report;
+    this.numFeatures = store.getNumFeatures();
+    this.numClasses = store.getNumClasses();
+    this.numRows = (int) store.getNumRows();
+    this.cardinality = new int[numFeatures];
+    this.tableOffset = new int[numFeatures + 1];
+    this.numeric = new boolean[numFeatures];
+    this.scan = new ThresholdScan(numClasses);
+    for (int f = 0; f < numFeatures; f++) {
+      cardinality[f] = store.getFeatureDictionary(f).size();
+      numeric[f] = store.getFeatureDictionary(f) instanceof NumericBins;
+      tableOffset[f + 1] = tableOffset[f] + cardinality[f] * numClasses;
+    }
+    this.tableSize = tableOffset[numFeatures];
+
+    // Use at most a quarter of the budget for the read blocks of every column
+    long perRow = 4L * (numFeatures + 3);
+    this.blockRows = (int) Math.max(1024, Math.min(ColumnStore.DEFAULT_BLOCK_ROWS, memoryBudget / 4 / perRow));
+  }
+
+  TrainingConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Grows the tree and returns its root.
+   * 
+   * @param depth the depth of the root (typically 0)
+   */
+  Node train(int depth) throws IOException {
+    int[] rootCounts = countLabels();
+    double initialEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(rootCounts, 0, numClasses, numRows);
+    this.config = DecisionTree.resolveConfig(limits, initialEntropy, numRows);
+
+    try {
+      // Uniquely named, so concurrent fits on one store keep their own files
+      assignmentFile = Files.createTempFile(store.getDirectory(), "assignment", ".bin");
+      nextAssignmentFile = Files.createTempFile(store.getDirectory(), "assignment", ".next.bin");
+      try (ColumnStore.IntWriter writer = new ColumnStore.IntWriter(assignmentFile)) {
+        for (int row = 0; row < numRows; row++) {
+          writer.write(0);
+        }
+      }
+
+      List<Integer> open = new ArrayList<>();
+      open.add(newNode());
+      while (!open.isEmpty()) {
+        List<Integer> splitNodes = evaluateLevel(open, depth);
+        if (splitNodes.isEmpty()) {
+          break;
+        }
+        reassignRows(splitNodes);
+
+        List<Integer> next = new ArrayList<>();
+        for (int id : splitNodes) {
+          // A threshold split maps a run of bins to each of its two children
+          int previous = -1;
+          for (int child : childIds.get(id)) {
+            if (child >= 0 && child != previous) {
+              next.add(child);
+            }
+            previous = child;
+          }
+        }
+        open = next;
+        depth++;
+      }
+      return nodes.get(0);
+    } finally {
+      if (assignmentFile != null) {
+        Files.deleteIfExists(assignmentFile);
+      }
+      if (nextAssignmentFile != null) {
+        Files.deleteIfExists(nextAssignmentFile);
+      }
+    }
+  }
+
+  private int newNode() {
+    nodes.add(new Node());
+    childIds.add(null);
+    splitFeature.add(-1);
+    return nodes.size() - 1;
+  }
+
+  /**
+   * Computes the counts of the open nodes, as many per pass as the budget
+   * allows, and decides each node's split.
+   * 
+   * @return the ids of the nodes that were split
+   */
+  private List<Integer> evaluateLevel(List<Integer> open, int depth) throws IOException {
+    long blockBytes = 4L * blockRows * (numFeatures + 3);
+    long perNode = 4L * (tableSize + numClasses);
+    int nodesPerPass = (int) Math.max(1, Math.min(open.size(), (memoryBudget - blockBytes) / perNode));
+
+    List<Integer> splitNodes = new ArrayList<>();
+    int[] slotOf = new int[nodes.size()];
+    for (int start = 0; start < open.size(); start += nodesPerPass) {
+      List<Integer> batch = open.subList(start, Math.min(open.size(), start + nodesPerPass));
+      Arrays.fill(slotOf, -1);
+      for (int slot = 0; slot < batch.size(); slot++) {
+        slotOf[batch.get(slot)] = slot;
+      }
+
+      int[][] counts = new int[batch.size()][tableSize];
+      int[][] classCounts = new int[batch.size()][numClasses];
+      countPass(slotOf, counts, classCounts);
+
+      for (int slot = 0; slot < batch.size(); slot++) {
+        int id = batch.get(slot);
+        if (decide(id, counts[slot], classCounts[slot], depth)) {
+          splitNodes.add(id);
+        }
+      }
+    }
+    return splitNodes;
+  }
+
+  /**
+   * One sequential pass over the assignment, label and feature files.
+   */
+  private void countPass(int[] slotOf, int[][] counts, int[][] classCounts) throws IOException {
+    ColumnStore.IntReader[] features = new ColumnStore.IntReader[numFeatures];
+    try (ColumnStore.IntReader assignment = new ColumnStore.IntReader(assignmentFile, blockRows);
+        ColumnStore.IntReader labels = store.openLabels(blockRows)) {
+      for (int f = 0; f < numFeatures; f++) {
+        features[f] = store.openFeature(f, blockRows);
+      }
+      int[] nodeBlock = new int[blockRows];
+      int[] labelBlock = new int[blockRows];
+      int[][] featureBlocks = new int[numFeatures][blockRows];
+      int read;
+      while ((read = assignment.read(nodeBlock)) > 0) {
+        labels.read(labelBlock);
+        for (int f = 0; f < numFeatures; f++) {
+          features[f].read(featureBlocks[f]);
+        }
+        for (int i = 0; i < read; i++) {
+          int node = nodeBlock[i];
+          int slot = node >= 0 ? slotOf[node] : -1;
+          if (slot < 0) {
+            continue;
+          }
+          int label = labelBlock[i];
+          int[] table = counts[slot];
+          classCounts[slot][label]++;
+          for (int f = 0; f < numFeatures; f++) {
+            table[tableOffset[f] + featureBlocks[f][i] * numClasses + label]++;
+          }
+        }
+      }
+    } finally {
+      for (ColumnStore.IntReader reader : features) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the split rules of {@link DecisionTree} to one node's counts.
+   * 
+   * @return true if the node was split
+   */
+  private boolean decide(int id, int[] table, int[] classCounts, int depth) {
+    int total = 0;
+    for (int count : classCounts) {
+      total += count;
+    }
+    double baseEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(classCounts, 0, numClasses, total);
+
+    double bestEntropyAfterSplit = Double.POSITIVE_INFINITY;
+    int bestFeature = -1;
+    int bestThreshold = -1;
+    for (int f = 0; f < numFeatures; f++) {
+      double entropyAfterSplit;
+      int threshold = -1;
+      if (numeric[f]) {
+        entropyAfterSplit = scan.scan(table, tableOffset[f], cardinality[f], classCounts, total);
+        threshold = scan.getBestThreshold();
+      } else {
+        entropyAfterSplit = InformationTheoryMetrics.calculateWeightedEntropy(
+            table, tableOffset[f], cardinality[f], numClasses, total);
+      }
+      if (entropyAfterSplit < bestEntropyAfterSplit) {
+        bestEntropyAfterSplit = entropyAfterSplit;
+        bestFeature = f;
+        bestThreshold = threshold;
+      }
+    }
+    if (bestFeature < 0) {
+      bestEntropyAfterSplit = baseEntropy;
+    }
+
+    Split split = new Split(bestFeature, bestThreshold, baseEntropy, bestEntropyAfterSplit, classCounts, total);
+    Node node = nodes.get(id);
+    node.setClassCounts(classCounts);
+    node.setPredictedClass(store.getLabelDictionary().decode(split.getMajorityClass()));
+    TrainingReport.StopReason stopReason = DecisionTree.stopReason(split, depth, config);
+    if (report != null) {
+      report.recordNode(depth);
+      report.addRowsScanned(total);
+      if (stopReason != null) {
+        report.recordLeaf(depth, stopReason);
+      } else {
+        report.addRowsPartitioned(total);
+      }
+    }
+    if (stopReason != null) {
+      return false;
+    }
+    node.setInformationGain(split.getInformationGain());
+
+    int[] children = new int[cardinality[bestFeature]];
+    Map<String, Node> childMap = new HashMap<>();
+    if (split.isThresholdSplit()) {
+      // Rows are routed by bin, so every bin points at one of the two children
+      double threshold = ((NumericBins) store.getFeatureDictionary(bestFeature)).getUpperBound(bestThreshold);
+      int left = newNode();
+      int right = newNode();
+      for (int value = 0; value < children.length; value++) {
+        children[value] = value <= bestThreshold ? left : right;
+      }
+      childMap.put(Node.lessOrEqualLabel(threshold), nodes.get(left));
+      childMap.put(Node.greaterLabel(threshold), nodes.get(right));
+      node.setSplitThreshold(threshold);
+    } else {
+      for (int value = 0; value < children.length; value++) {
+        children[value] = -1;
+        if (valueTotal(table, bestFeature, value) > 0) {
+          children[value] = newNode();
+          childMap.put(store.getFeatureDictionary(bestFeature).decode(value), nodes.get(children[value]));
+        }
+      }
+    }
+    node.setSplitFeatureIndex(bestFeature);
+    node.setChildren(childMap);
+    childIds.set(id, children);
+    splitFeature.set(id, bestFeature);
+    return true;
+  }
+
+  private int valueTotal(int[] table, int feature, int value) {
+    int start = tableOffset[feature] + value * numClasses;
+    int sum = 0;
+    for (int c = 0; c < numClasses; c++) {
+      sum += table[start + c];
+    }
+    return sum;
+  }
+
+  /**
+   * Moves every row of a split node to its child, and marks rows of nodes
+   * that became leaves as finished. Only the columns used by a split are read.
+   */
+  private void reassignRows(List<Integer> splitNodes) throws IOException {
+    boolean[] used = new boolean[numFeatures];
+    for (int id : splitNodes) {
+      used[splitFeature.get(id)] = true;
+    }
+
+    ColumnStore.IntReader[] features = new ColumnStore.IntReader[numFeatures];
+    try (ColumnStore.IntReader assignment = new ColumnStore.IntReader(assignmentFile, blockRows);
+        ColumnStore.IntWriter writer = new ColumnStore.IntWriter(nextAssignmentFile)) {
+      for (int f = 0; f < numFeatures; f++) {
+        if (used[f]) {
+          features[f] = store.openFeature(f, blockRows);
+        }
+      }
+      int[] nodeBlock = new int[blockRows];
+      int[][] featureBlocks = new int[numFeatures][];
+      for (int f = 0; f < numFeatures; f++) {
+        if (used[f]) {
+          featureBlocks[f] = new int[blockRows];
+        }
+      }
+      int read;
+      while ((read = assignment.read(nodeBlock)) > 0) {
+        for (int f = 0; f < numFeatures; f++) {
+          if (used[f]) {
+            features[f].read(featureBlocks[f]);
+          }
+        }
+        for (int i = 0; i < read; i++) {
+          int node = nodeBlock[i];
+          int next = -1;
+          if (node >= 0 && childIds.get(node) != null) {
+            next = childIds.get(node)[featureBlocks[splitFeature.get(node)][i]];
+          }
+          writer.write(next);
+        }
+      }
+    } finally {
+      for (ColumnStore.IntReader reader : features) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+    Files.move(nextAssignmentFile, assignmentFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private int[] countLabels() throws IOException {
+    int[] counts = new int[numClasses];
+    int[] block = new int[blockRows];
+    try (ColumnStore.IntReader labels = store.openLabels(blockRows)) {
+      int read;
+      while ((read = labels.read(block)) > 0) {
+        for (int i = 0; i < read; i++) {
+          counts[block[i]]++;
+        }
+      }
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,30 @@
+package com.stegrandom.model;
+
+/**
+ * A trained classifier that can be shared by any number of threads.
+ * Implementations are immutable: predicting never writes to the model.
+ */
+public interface Predictor {
+
+  /**
+   * Predicts the class label of one raw row.
+   * 
+   * @param row the feature values of the sample
+   * @return the predicted class label
+   */
+  String predict(String[] row);
+
+  /**
+   * Predicts the class labels of many raw rows.
+   * 
+   * @param rows the samples to predict
+   * @return the predicted class label of each sample
+   */
+  default String[] predict(String[][] rows) {
+    String[] predictions = new String[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      predictions[i] = predict(rows[i]);
+    }
+    return predictions;
+  }
+}
@@ -0,0 +1,270 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A random forest of {@link DecisionTree}s for categorical features.
+ * 
+ * Every tree is trained on a bootstrap sample of row indices over one shared
+ * {@link EncodedDataset}, and only considers a random subset of the features
+ * at each node. Each tree gets its own seed, split off a generator seeded with
+ * the forest seed before training starts, so the forest is reproducible no
+ * matter how the trees are scheduled. Trees are trained in parallel, one task
+ * per tree, and predictions are a majority vote with ties going to the lowest
+ * class code.
+ */
+public class RandomForest implements Predictor {
+  private final int numTrees;
+  private final long seed;
+  private int featuresPerSplit;
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+  private CompiledTree[] trees;
+  private double outOfBagAccuracy = Double.NaN;
+  private int numClasses;
+
+  /**
+   * @param numTrees the number of trees to train
+   * @param seed     the seed of all random sampling
+   */
+  public RandomForest(int numTrees, long seed) {
+    if (numTrees <= 0) {
+      throw new IllegalArgumentException("A forest needs at least one tree");
+    }
+    this.numTrees = numTrees;
+    this.seed = seed;
+  }
+
+  /**
+   * @param featuresPerSplit the number of candidate features per node, or 0
+   *                         for the square root of the feature count
+   */
+  public void setFeaturesPerSplit(int featuresPerSplit) {
+    this.featuresPerSplit = featuresPerSplit;
+  }
+
+  /**
+   * @param pool the pool used to train trees and score rows in parallel
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  public void fit(String[][] features, String[] target) {
+    if (features == null || target == null || features.length == 0 || features.length != target.length) {
+      throw new IllegalArgumentException("Features and target must be non-empty and of equal length");
+    }
+    fit(EncodedDataset.encode(features, target));
+  }
+
+  /**
+   * Trains the forest and estimates its out-of-bag accuracy.
+   * 
+   * @param data the dictionary-encoded training data, shared by all trees
+   */
+  public void fit(EncodedDataset data) {
+    int numRows = data.getNumRows();
+    int perSplit = featuresPerSplit > 0
+        ? featuresPerSplit
+        : Math.max(1, (int) Math.round(Math.sqrt(data.getNumFeatures())));
+    this.numClasses = data.getNumClasses();
+
+    // Derive the per-tree streams up front so they do not depend on scheduling
+    SplittableRandom root = new SplittableRandom(seed);
+    SplittableRandom[] streams = new SplittableRandom[numTrees];
+    for (int t = 0; t < numTrees; t++) {
+      streams[t] = root.split();
+    }
+
+    // Every tree is compiled against one read-only copy of the dictionaries,
+    // so the forest holds them once and a row is encoded once for all trees
+    CategoryDictionary[] featureDictionaries = new CategoryDictionary[data.getNumFeatures()];
+    for (int f = 0; f < featureDictionaries.length; f++) {
+      featureDictionaries[f] = data.getFeatureDictionary(f).toImmutable();
+    }
+    CategoryDictionary labelDictionary = data.getLabelDictionary().toImmutable();
+
+    CompiledTree[] trained = new CompiledTree[numTrees];
+    long[][] inBag = new long[numTrees][];
+    List<RecursiveAction> tasks = new ArrayList<>();
+    for (int t = 0; t < numTrees; t++) {
+      int tree = t;
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          SplittableRandom random = streams[tree];
+          int[] sample = new int[numRows];
+          long[] bag = new long[(numRows + 63) >>> 6];
+          for (int i = 0; i < numRows; i++) {
+            int row = random.nextInt(numRows);
+            sample[i] = row;
+            bag[row >>> 6] |= 1L << row;
+          }
+
+          DecisionTree decisionTree = new DecisionTree();
+          decisionTree.setFeatureSubsampling(perSplit, random.nextLong());
+          decisionTree.setCompileOnFit(false);
+          decisionTree.fit(data, sample, 0);
+          trained[tree] = CompiledTree.compile(decisionTree.getRoot(), featureDictionaries, labelDictionary);
+          inBag[tree] = bag;
+        }
+      });
+    }
+    pool.invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(tasks);
+      }
+    });
+
+    this.trees = trained;
+    this.outOfBagAccuracy = computeOutOfBagAccuracy(data, inBag);
+  }
+
+  /**
+   * Each row is scored only by the trees whose bootstrap sample missed it.
+   */
+  private double computeOutOfBagAccuracy(EncodedDataset data, long[][] inBag) {
+    int numRows = data.getNumRows();
+    int numFeatures = data.getNumFeatures();
+    int[] labels = data.getLabels();
+    int[] correct = new int[1];
+    int[] scored = new int[1];
+    pool.invoke(new RowRangeTask(0, numRows, (from, to) -> {
+      int[] codes = new int[numFeatures];
+      int[] votes = new int[numClasses];
+      int localCorrect = 0;
+      int localScored = 0;
+      for (int row = from; row < to; row++) {
+        Arrays.fill(votes, 0);
+        boolean any = false;
+        for (int t = 0; t < trees.length; t++) {
+          if ((inBag[t][row >>> 6] & (1L << row)) != 0) {
+            continue;
+          }
+          if (!any) {
+            for (int f = 0; f < numFeatures; f++) {
+              codes[f] = data.getColumn(f)[row];
+            }
+            any = true;
+          }
+          votes[trees[t].predictCode(codes)]++;
+        }
+        if (any) {
+          localScored++;
+          if (argMax(votes) == labels[row]) {
+            localCorrect++;
+          }
+        }
+      }
+      synchronized (correct) {
+        correct[0] += localCorrect;
+        scored[0] += localScored;
+      }
+    }));
+    return scored[0] > 0 ? (double) correct[0] / scored[0] : Double.NaN;
+  }
+
+  /**
+   * @return the accuracy on rows left out of each tree's bootstrap sample, or
+   *         NaN if every row was in every sample
+   */
+  public double getOutOfBagAccuracy() {
+    return outOfBagAccuracy;
+  }
+
+  public int getNumTrees() {
+    return numTrees;
+  }
+
+  public CompiledTree getTree(int index) {
+    return trees[index];
+  }
+
+  @Override
+  public String predict(String[] row) {
+    checkTrained();
+    int[] codes = new int[trees[0].getNumFeatures()];
+    trees[0].encode(row, codes);
+    int[] votes = new int[numClasses];
+    for (CompiledTree tree : trees) {
+      votes[tree.predictCode(codes)]++;
+    }
+    return trees[0].decodeLabel(argMax(votes));
+  }
+
+  /**
+   * Predicts many rows, scoring row ranges in parallel on the forest's pool.
+   */
+  @Override
+  public String[] predict(String[][] rows) {
+    checkTrained();
+    String[] predictions = new String[rows.length];
+    pool.invoke(new RowRangeTask(0, rows.length, (from, to) -> {
+      int[] codes = new int[trees[0].getNumFeatures()];
+      int[] votes = new int[numClasses];
+      for (int i = from; i < to; i++) {
+        trees[0].encode(rows[i], codes);
+        Arrays.fill(votes, 0);
+        for (CompiledTree tree : trees) {
+          votes[tree.predictCode(codes)]++;
+        }
+        predictions[i] = trees[0].decodeLabel(argMax(votes));
+      }
+    }));
+    return predictions;
+  }
+
+  private static int argMax(int[] votes) {
+    int best = 0;
+    for (int c = 1; c < votes.length; c++) {
+      if (votes[c] > votes[best]) {
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  private void checkTrained() {
+    if (trees == null) {
+      throw new IllegalStateException("The forest must be trained before predicting");
+    }
+  }
+
+  private interface RangeBody {
+    void run(int from, int to);
+  }
+
+  /**
+   * Runs a body over a row range, halving it down to chunks of 1024 rows.
+   */
+  private static class RowRangeTask extends RecursiveAction {
+    private static final int CHUNK = 1024;
+    private final int from;
+    private final int to;
+    private final RangeBody body;
+
+    RowRangeTask(int from, int to, RangeBody body) {
+      this.from = from;
+      this.to = to;
+      this.body = body;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= CHUNK) {
+        body.run(from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new RowRangeTask(from, mid, body), new RowRangeTask(mid, to, body));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.stegrandom.model;
+
+/**
+ * Owns the row-index array shared by every node of a tree being built.
+ * 
+ * A node is a range [from, to) of this array. Splitting a node reorders its
+ * range in place with one counting-sort pass so that the rows of each child
+ * are contiguous, which keeps training memory at O(n) regardless of depth.
+ * Ranges of different nodes never overlap, so disjoint ranges may be
+ * partitioned concurrently.
+ */
+public class RowPartitioner {
+  private final int[] rows;
+  private final int[] scratch;
+
+  /**
+   * Creates a partitioner over the rows 0..numRows-1.
+   */
+  public RowPartitioner(int numRows) {
+    this.rows = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rows[i] = i;
+    }
+    this.scratch = new int[numRows];
+  }
+
+  /**
+   * Creates a partitioner over an explicit list of row indices, which may
+   * contain repeats. The array is used directly and reordered in place.
+   */
+  public RowPartitioner(int[] rows) {
+    this.rows = rows;
+    this.scratch = new int[rows.length];
+  }
+
+  public int[] getRows() {
+    return rows;
+  }
+
+  public int size() {
+    return rows.length;
+  }
+
+  /**
+   * Stably groups rows[from, to) by their code in the given column.
+   * 
+   * @param column      the encoded feature column to split on
+   * @param cardinality the number of codes in the column's dictionary
+   * @param from        start of the node's range, inclusive
+   * @param to          end of the node's range, exclusive
+   * @return offsets of length cardinality + 1; the rows with code v end up in
+   *         [offsets[v], offsets[v + 1])
+   */
+  public int[] partition(int[] column, int cardinality, int from, int to) {
+    int[] offsets = new int[cardinality + 1];
+    for (int i = from; i < to; i++) {
+      offsets[column[rows[i]] + 1]++;
+    }
+    offsets[0] = from;
+    for (int value = 0; value < cardinality; value++) {
+      offsets[value + 1] += offsets[value];
+    }
+
+    // Scatter into the scratch range using a running cursor per value
+    int[] cursor = new int[cardinality];
+    System.arraycopy(offsets, 0, cursor, 0, cardinality);
+    for (int i = from; i < to; i++) {
+      int row = rows[i];
+      scratch[cursor[column[row]]++] = row;
+    }
+    System.arraycopy(scratch, from, rows, from, to - from);
+    return offsets;
+  }
+}
@@ -0,0 +1,102 @@
+package com.stegrandom.model;
+
+/**
+ * The outcome of evaluating every feature at one node: the best feature to
+ * split on together with the node statistics needed by the stopping rules.
+ */
+public class Split {
+  private final int featureIndex;
+  private final int threshold;
+  private final double entropy;
+  private final double entropyAfterSplit;
+  private final int[] classCounts;
+  private final int numRows;
+
+  public Split(int featureIndex, double entropy, double entropyAfterSplit, int[] classCounts, int numRows) {
+    this(featureIndex, -1, entropy, entropyAfterSplit, classCounts, numRows);
+  }
+
+  public Split(int featureIndex, int threshold, double entropy, double entropyAfterSplit,
+      int[] classCounts, int numRows) {
+    this.featureIndex = featureIndex;
+    this.threshold = threshold;
+    this.entropy = entropy;
+    this.entropyAfterSplit = entropyAfterSplit;
+    this.classCounts = classCounts;
+    this.numRows = numRows;
+  }
+
+  /**
+   * @return the index of the best feature, or -1 if the node has no features
+   */
+  public int getFeatureIndex() {
+    return featureIndex;
+  }
+
+  /**
+   * @return the highest bin sent to the left child of a numeric threshold
+   *         split, or -1 for a multiway split on every category
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  public boolean isThresholdSplit() {
+    return threshold >= 0;
+  }
+
+  public double getEntropy() {
+    return entropy;
+  }
+
+  public double getEntropyAfterSplit() {
+    return entropyAfterSplit;
+  }
+
+  public double getInformationGain() {
+    return entropy - entropyAfterSplit;
+  }
+
+  /**
+   * @return the number of samples of each class code at the node
+   */
+  public int[] getClassCounts() {
+    return classCounts;
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public boolean isPure() {
+    for (int count : classCounts) {
+      if (count != 0 && count != numRows) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the most frequent class code, ties going to the lowest code
+   */
+  public int getMajorityClass() {
+    return majorityClass(classCounts);
+  }
+
+  /**
+   * @return the most frequent class code of the counts, ties going to the
+   *         lowest code, or -1 if every count is 0
+   */
+  static int majorityClass(int[] classCounts) {
+    int majorityClass = -1;
+    int maxCount = 0;
+    for (int classCode = 0; classCode < classCounts.length; classCode++) {
+      if (classCounts[classCode] > maxCount) {
+        maxCount = classCounts[classCode];
+        majorityClass = classCode;
+      }
+    }
+    return majorityClass;
+  }
+}
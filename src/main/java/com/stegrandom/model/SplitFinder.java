@@ -0,0 +1,336 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.core.NumericBins;
+import com.stegrandom.core.RowSlice;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the best split of a node from value x class contingency tables.
+ * 
+ * For every feature the node is scanned exactly once to fill a table of
+ * counts[value * numClasses + class], and the weighted entropy of the split is
+ * computed from that table alone. For numeric features the values are bins,
+ * and the table is scanned once more in bin order to find the best binary
+ * threshold instead. Each thread gets its own tables, allocated
+ * once and reused for every feature and node, so the scans do not allocate
+ * and a finder can be shared between threads.
+ * 
+ * A builder can also keep a node's histograms, all features' tables in one
+ * flat array, and evaluate the node from them with
+ * {@link #findBestSplitFromHistograms}. The histograms of one child can
+ * then be derived from its parent's by subtracting those of its siblings.
+ * 
+ * When a pool is configured, the features of nodes with at least
+ * {@code parallelThreshold} rows are scored concurrently. Ties are always
+ * broken in favour of the lowest feature index, so the chosen split is the
+ * same as in a sequential run.
+ */
+public class SplitFinder {
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+  private final int numClasses;
+  private final int maxCardinality;
+  private final int[] tableOffset; // start of each feature's table in a node's histograms
+  private final CategoryDictionary[] dictionaries;
+  private final ForkJoinPool pool;
+  private final int parallelThreshold;
+  private final ThreadLocal<Tables> tables;
+
+  /**
+   * Creates a sequential finder sized for the dictionaries of the given dataset.
+   * 
+   * @param data the dataset whose nodes will be evaluated
+   */
+  public SplitFinder(EncodedDataset data) {
+    this(data, null, DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Creates a finder that scores features in parallel on large nodes.
+   * 
+   * @param data              the dataset whose nodes will be evaluated
+   * @param pool              the pool to evaluate features on, or null to
+   *                          always evaluate sequentially
+   * @param parallelThreshold the minimum number of rows for a node to be
+   *                          evaluated in parallel
+   */
+  public SplitFinder(EncodedDataset data, ForkJoinPool pool, int parallelThreshold) {
+    int maxCardinality = 1;
+    for (int feature = 0; feature < data.getNumFeatures(); feature++) {
+      maxCardinality = Math.max(maxCardinality, data.getFeatureDictionary(feature).size());
+    }
+    this.numClasses = data.getNumClasses();
+    this.maxCardinality = maxCardinality;
+    this.dictionaries = new CategoryDictionary[data.getNumFeatures()];
+    this.tableOffset = new int[data.getNumFeatures() + 1];
+    for (int feature = 0; feature < dictionaries.length; feature++) {
+      dictionaries[feature] = data.getFeatureDictionary(feature);
+      tableOffset[feature + 1] = tableOffset[feature] + dictionaries[feature].size() * numClasses;
+    }
+    this.pool = pool;
+    this.parallelThreshold = parallelThreshold;
+    this.tables = ThreadLocal.withInitial(Tables::new);
+  }
+
+  /**
+   * Evaluates every feature of the given node.
+   * 
+   * @param slice the rows of the encoded dataset that reach the node
+   * @return the best split together with the node's class statistics
+   */
+  public Split findBestSplit(RowSlice slice) {
+    return findBestSplit(slice, null);
+  }
+
+  /**
+   * Evaluates every feature of the given node from its histograms, without
+   * reading its rows.
+   * 
+   * @param slice      the rows of the encoded dataset that reach the node
+   * @param histograms the node's histograms, see {@link #buildHistograms}
+   * @return the best split together with the node's class statistics
+   */
+  public Split findBestSplitFromHistograms(RowSlice slice, int[] histograms) {
+    int numRows = slice.size();
+    int numFeatures = dictionaries.length;
+
+    // Every feature's table sums to the node's class counts
+    int[] classCounts;
+    if (numFeatures == 0) {
+      classCounts = slice.countClasses();
+    } else {
+      classCounts = new int[numClasses];
+      for (int i = 0; i < tableOffset[1]; i++) {
+        classCounts[i % numClasses] += histograms[i];
+      }
+    }
+    double baseEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(classCounts, 0, numClasses, numRows);
+
+    Tables local = tables.get();
+    double bestEntropyAfterSplit = Double.POSITIVE_INFINITY;
+    int bestFeatureIndex = -1;
+    int bestThreshold = -1;
+    for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+      double entropyAfterSplit = entropyAfterSplit(histograms, tableOffset[featureIndex], featureIndex,
+          classCounts, numRows, local);
+      if (entropyAfterSplit < bestEntropyAfterSplit) {
+        bestEntropyAfterSplit = entropyAfterSplit;
+        bestFeatureIndex = featureIndex;
+        bestThreshold = local.threshold;
+      }
+    }
+
+    if (bestFeatureIndex < 0) {
+      bestEntropyAfterSplit = baseEntropy;
+    }
+    return new Split(bestFeatureIndex, bestThreshold, baseEntropy, bestEntropyAfterSplit, classCounts, numRows);
+  }
+
+  /**
+   * @return the number of ints in the histograms of one node
+   */
+  public int getHistogramSize() {
+    return tableOffset[dictionaries.length];
+  }
+
+  /**
+   * Scans a node's rows once per feature into a new histograms array, laid
+   * out as histograms[tableOffset(feature) + value * numClasses + class].
+   * Large nodes fill the tables of different features in parallel.
+   * 
+   * @param slice the rows of the node
+   * @return the node's histograms
+   */
+  public int[] buildHistograms(RowSlice slice) {
+    int[] histograms = new int[getHistogramSize()];
+    int numFeatures = dictionaries.length;
+    if (pool != null && numFeatures > 1 && slice.size() >= parallelThreshold) {
+      pool.invoke(new HistogramTask(slice, histograms, 0, numFeatures));
+    } else {
+      for (int feature = 0; feature < numFeatures; feature++) {
+        fillHistogram(slice, feature, histograms, tableOffset[feature]);
+      }
+    }
+    return histograms;
+  }
+
+  /**
+   * Turns a parent's histograms into those of one child by subtracting the
+   * histograms of all of its other children, in place.
+   * 
+   * @param parent   the parent's histograms, overwritten
+   * @param sibling  the histograms of one other child
+   */
+  public void subtractHistograms(int[] parent, int[] sibling) {
+    for (int i = 0; i < parent.length; i++) {
+      parent[i] -= sibling[i];
+    }
+  }
+
+  private void fillHistogram(RowSlice slice, int featureIndex, int[] counts, int offset) {
+    int[] column = slice.getData().getColumn(featureIndex);
+    int[] labels = slice.getData().getLabels();
+    int[] rows = slice.getRows();
+    for (int i = slice.getFrom(); i < slice.getTo(); i++) {
+      int row = rows[i];
+      counts[offset + column[row] * numClasses + labels[row]]++;
+    }
+  }
+
+  /**
+   * Evaluates a subset of the features of the given node.
+   * 
+   * @param slice    the rows of the encoded dataset that reach the node
+   * @param features the candidate feature indices in ascending order, or null
+   *                 for all features
+   * @return the best split together with the node's class statistics
+   */
+  public Split findBestSplit(RowSlice slice, int[] features) {
+    int numRows = slice.size();
+    int numCandidates = features != null ? features.length : slice.getData().getNumFeatures();
+
+    int[] classCounts = slice.countClasses();
+    double baseEntropy = InformationTheoryMetrics.calculateEntropyFromCounts(classCounts, 0, numClasses, numRows);
+
+    double bestEntropyAfterSplit = Double.POSITIVE_INFINITY;
+    int bestFeatureIndex = -1;
+    int bestThreshold = -1;
+    if (pool != null && numCandidates > 1 && numRows >= parallelThreshold) {
+      double[] entropies = new double[numCandidates];
+      int[] thresholds = new int[numCandidates];
+      pool.invoke(new FeatureTask(slice, features, classCounts, entropies, thresholds, 0, numCandidates));
+      for (int i = 0; i < numCandidates; i++) {
+        if (entropies[i] < bestEntropyAfterSplit) {
+          bestEntropyAfterSplit = entropies[i];
+          bestFeatureIndex = features != null ? features[i] : i;
+          bestThreshold = thresholds[i];
+        }
+      }
+    } else {
+      Tables local = tables.get();
+      for (int i = 0; i < numCandidates; i++) {
+        int featureIndex = features != null ? features[i] : i;
+        double entropyAfterSplit = entropyAfterSplit(slice, featureIndex, classCounts, local);
+
+        // Lowest entropy after split is the highest information gain
+        if (entropyAfterSplit < bestEntropyAfterSplit) {
+          bestEntropyAfterSplit = entropyAfterSplit;
+          bestFeatureIndex = featureIndex;
+          bestThreshold = local.threshold;
+        }
+      }
+    }
+
+    if (bestFeatureIndex < 0) {
+      bestEntropyAfterSplit = baseEntropy;
+    }
+    return new Split(bestFeatureIndex, bestThreshold, baseEntropy, bestEntropyAfterSplit, classCounts, numRows);
+  }
+
+  /**
+   * Fills the contingency table of one feature and returns its weighted
+   * entropy. For a numeric feature the best threshold is left in
+   * {@code local.threshold}; it is -1 for categorical features.
+   */
+  private double entropyAfterSplit(RowSlice slice, int featureIndex, int[] classCounts, Tables local) {
+    int[] counts = local.counts;
+    Arrays.fill(counts, 0, dictionaries[featureIndex].size() * numClasses, 0);
+    fillHistogram(slice, featureIndex, counts, 0);
+    return entropyAfterSplit(counts, 0, featureIndex, classCounts, slice.size(), local);
+  }
+
+  /**
+   * Scores one feature from its table at counts[offset ...].
+   */
+  private double entropyAfterSplit(int[] counts, int offset, int featureIndex, int[] classCounts,
+      int numRows, Tables local) {
+    CategoryDictionary dictionary = dictionaries[featureIndex];
+    int cardinality = dictionary.size();
+    if (dictionary instanceof NumericBins) {
+      double entropy = local.scan.scan(counts, offset, cardinality, classCounts, numRows);
+      local.threshold = local.scan.getBestThreshold();
+      return entropy;
+    }
+    local.threshold = -1;
+    return InformationTheoryMetrics.calculateWeightedEntropy(
+        counts, offset, cardinality, numClasses, numRows);
+  }
+
+  private class Tables {
+    final int[] counts = new int[maxCardinality * numClasses];
+    final ThresholdScan scan = new ThresholdScan(numClasses);
+    int threshold;
+  }
+
+  /**
+   * Scores the candidates [from, to) by splitting the range in halves until a
+   * single feature is left.
+   */
+  private class FeatureTask extends RecursiveAction {
+    private final RowSlice slice;
+    private final int[] features;
+    private final int[] classCounts;
+    private final double[] entropies;
+    private final int[] thresholds;
+    private final int from;
+    private final int to;
+
+    FeatureTask(RowSlice slice, int[] features, int[] classCounts, double[] entropies, int[] thresholds,
+        int from, int to) {
+      this.slice = slice;
+      this.features = features;
+      this.classCounts = classCounts;
+      this.entropies = entropies;
+      this.thresholds = thresholds;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        int featureIndex = features != null ? features[from] : from;
+        Tables local = tables.get();
+        entropies[from] = entropyAfterSplit(slice, featureIndex, classCounts, local);
+        thresholds[from] = local.threshold;
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new FeatureTask(slice, features, classCounts, entropies, thresholds, from, mid),
+          new FeatureTask(slice, features, classCounts, entropies, thresholds, mid, to));
+    }
+  }
+
+  /**
+   * Fills the tables of the features [from, to) of one node's histograms.
+   * Each feature owns a disjoint region of the array.
+   */
+  private class HistogramTask extends RecursiveAction {
+    private final RowSlice slice;
+    private final int[] histograms;
+    private final int from;
+    private final int to;
+
+    HistogramTask(RowSlice slice, int[] histograms, int from, int to) {
+      this.slice = slice;
+      this.histograms = histograms;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        fillHistogram(slice, from, histograms, tableOffset[from]);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new HistogramTask(slice, histograms, from, mid), new HistogramTask(slice, histograms, mid, to));
+    }
+  }
+}
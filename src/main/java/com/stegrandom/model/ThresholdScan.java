@@ -0,0 +1,79 @@
+package com.stegrandom.model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the best binary threshold of a numeric feature from its bin x class
+ * counts table.
+ * 
+ * The bins are scanned in order while accumulating the class counts of the
+ * left side, so every candidate threshold costs O(numClasses) and a whole
+ * feature costs O(bins x numClasses), independent of the number of rows.
+ * A scan owns its scratch arrays and must not be shared between threads.
+ */
+class ThresholdScan {
+  private final int numClasses;
+  private final int[] left;
+  private final int[] right;
+  private int bestThreshold;
+
+  ThresholdScan(int numClasses) {
+    this.numClasses = numClasses;
+    this.left = new int[numClasses];
+    this.right = new int[numClasses];
+  }
+
+  /**
+   * Evaluates every threshold that leaves rows on both sides.
+   * 
+   * @param counts      the table, counts[offset + bin * numClasses + class]
+   * @param offset      the start of the feature's table
+   * @param cardinality the number of bins
+   * @param classTotals the class counts of the node
+   * @param total       the number of rows at the node
+   * @return the weighted entropy of the best threshold, ties going to the
+   *         lowest bin, or positive infinity if all rows share one bin
+   */
+  double scan(int[] counts, int offset, int cardinality, int[] classTotals, int total) {
+    Arrays.fill(left, 0);
+    int leftTotal = 0;
+    double bestEntropy = Double.POSITIVE_INFINITY;
+    bestThreshold = -1;
+    for (int bin = 0; bin < cardinality - 1; bin++) {
+      int start = offset + bin * numClasses;
+      int binTotal = 0;
+      for (int c = 0; c < numClasses; c++) {
+        left[c] += counts[start + c];
+        binTotal += counts[start + c];
+      }
+      if (binTotal == 0) {
+        continue;
+      }
+      leftTotal += binTotal;
+      int rightTotal = total - leftTotal;
+      if (rightTotal == 0) {
+        break;
+      }
+      for (int c = 0; c < numClasses; c++) {
+        right[c] = classTotals[c] - left[c];
+      }
+
+      double entropy = (double) leftTotal / total
+          * InformationTheoryMetrics.calculateEntropyFromCounts(left, 0, numClasses, leftTotal)
+          + (double) rightTotal / total
+          * InformationTheoryMetrics.calculateEntropyFromCounts(right, 0, numClasses, rightTotal);
+      if (entropy < bestEntropy) {
+        bestEntropy = entropy;
+        bestThreshold = bin;
+      }
+    }
+    return bestEntropy;
+  }
+
+  /**
+   * @return the threshold bin found by the last {@link #scan}, or -1
+   */
+  int getBestThreshold() {
+    return bestThreshold;
+  }
+}
@@ -0,0 +1,321 @@
+package com.stegrandom.model;
+
+import com.stegrandom.core.TrainingConfig;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one fit of a {@link DecisionTree} spent its time on and what tree it
+ * grew, collected when {@link DecisionTree#setCollectReport} is on.
+ *
+ * Every phase records its calls, wall time and the bytes allocated by the
+ * thread running it, read from the JVM's {@link ThreadMXBean}. In parallel
+ * builds phases run on several threads at once and their times are summed,
+ * so they can add up to more than the fit's wall time; work that split
+ * scoring hands to other threads of the split pool is not attributed. Time
+ * spent in garbage collection over the whole fit is read from the
+ * collectors' beans.
+ *
+ * The tree is described by its nodes and leaves per depth, the rows scanned
+ * to find splits and build histograms, the rows partitioned into children,
+ * and the number of leaves per reason they stopped splitting. The limits the
+ * fit was trained with and the budget that stopped it early, if any, are
+ * recorded with them.
+ *
+ * Reports are filled concurrently by the threads of a parallel build and
+ * should be read once the fit has returned.
+ */
+public class TrainingReport {
+  /**
+   * The phases of a fit. Split search covers counting classes and computing
+   * entropies, which are one pass in {@link SplitFinder}.
+   */
+  public enum Phase {
+    ENCODE, HISTOGRAMS, SPLIT_SEARCH, PARTITION, BUILD, COMPILE
+  }
+
+  /**
+   * Why a node became a leaf, in the order {@link DecisionTree} checks them.
+   * BUDGET marks nodes left open, or refused a split, when a training budget
+   * ran out.
+   */
+  public enum StopReason {
+    PURE, NO_SPLIT, MAX_DEPTH, MIN_SAMPLES, MIN_ENTROPY_DECREASE, BUDGET
+  }
+
+  private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+  private final LongAdder[] phaseCalls = newAdders(Phase.values().length);
+  private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+  private final LongAdder[] phaseBytes = newAdders(Phase.values().length);
+  private final LongAdder[] stopReasons = newAdders(StopReason.values().length);
+  private final LongAdder rowsScanned = new LongAdder();
+  private final LongAdder rowsPartitioned = new LongAdder();
+  private long[] nodesPerDepth = new long[0];
+  private long[] leavesPerDepth = new long[0];
+
+  private final long startNanos;
+  private final long startGcCount;
+  private final long startGcMillis;
+  private long totalNanos = -1;
+  private long gcCount;
+  private long gcMillis;
+  private TrainingConfig config;
+  private TrainingConfig.Budget exhaustedBudget;
+
+  TrainingReport() {
+    this.startNanos = System.nanoTime();
+    this.startGcCount = gcCount();
+    this.startGcMillis = gcMillis();
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+      if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+        return threads;
+      }
+    }
+    return null;
+  }
+
+  private static LongAdder[] newAdders(int length) {
+    LongAdder[] adders = new LongAdder[length];
+    for (int i = 0; i < length; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+  private static long allocatedBytes() {
+    return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+  }
+
+  /**
+   * Starts measuring a phase on the current thread.
+   */
+  Probe begin(Phase phase) {
+    return new Probe(phase);
+  }
+
+  synchronized void recordNode(int depth) {
+    if (depth >= nodesPerDepth.length) {
+      nodesPerDepth = Arrays.copyOf(nodesPerDepth, depth + 1);
+      leavesPerDepth = Arrays.copyOf(leavesPerDepth, depth + 1);
+    }
+    nodesPerDepth[depth]++;
+  }
+
+  /**
+   * Records a leaf, after {@link #recordNode} was called for it.
+   */
+  synchronized void recordLeaf(int depth, StopReason reason) {
+    leavesPerDepth[depth]++;
+    stopReasons[reason.ordinal()].increment();
+  }
+
+  void addRowsScanned(long rows) {
+    rowsScanned.add(rows);
+  }
+
+  void addRowsPartitioned(long rows) {
+    rowsPartitioned.add(rows);
+  }
+
+  synchronized void recordOutcome(TrainingConfig config, TrainingConfig.Budget exhaustedBudget) {
+    this.config = config;
+    this.exhaustedBudget = exhaustedBudget;
+  }
+
+  void finish() {
+    this.totalNanos = System.nanoTime() - startNanos;
+    this.gcCount = gcCount() - startGcCount;
+    this.gcMillis = gcMillis() - startGcMillis;
+  }
+
+  /**
+   * @return whether allocated bytes are measured; they are reported as 0
+   *         on JVMs that cannot measure them per thread
+   */
+  public static boolean isAllocationTrackingSupported() {
+    return THREADS != null;
+  }
+
+  public long getPhaseCalls(Phase phase) {
+    return phaseCalls[phase.ordinal()].sum();
+  }
+
+  public long getPhaseNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()].sum();
+  }
+
+  public long getPhaseAllocatedBytes(Phase phase) {
+    return phaseBytes[phase.ordinal()].sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getGcCount() {
+    return gcCount;
+  }
+
+  public long getGcMillis() {
+    return gcMillis;
+  }
+
+  public long getRowsScanned() {
+    return rowsScanned.sum();
+  }
+
+  public long getRowsPartitioned() {
+    return rowsPartitioned.sum();
+  }
+
+  public synchronized int getDepth() {
+    return nodesPerDepth.length;
+  }
+
+  public synchronized long getNodes(int depth) {
+    return depth < nodesPerDepth.length ? nodesPerDepth[depth] : 0;
+  }
+
+  public synchronized long getLeaves(int depth) {
+    return depth < leavesPerDepth.length ? leavesPerDepth[depth] : 0;
+  }
+
+  public synchronized long getNodeCount() {
+    return Arrays.stream(nodesPerDepth).sum();
+  }
+
+  public synchronized long getLeafCount() {
+    return Arrays.stream(leavesPerDepth).sum();
+  }
+
+  public long getLeaves(StopReason reason) {
+    return stopReasons[reason.ordinal()].sum();
+  }
+
+  /**
+   * @return the resolved limits and budgets of the fit
+   */
+  public synchronized TrainingConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * @return the budget that stopped the fit early, or null
+   */
+  public synchronized TrainingConfig.Budget getExhaustedBudget() {
+    return exhaustedBudget;
+  }
+
+  /**
+   * @return the report as a JSON object, with times in milliseconds
+   */
+  public synchronized String toJson() {
+    StringBuilder json = new StringBuilder("{");
+    json.append("\"totalMillis\":").append(millis(totalNanos));
+    json.append(",\"gcCount\":").append(gcCount);
+    json.append(",\"gcMillis\":").append(gcMillis);
+    json.append(",\"nodes\":").append(getNodeCount());
+    json.append(",\"leaves\":").append(getLeafCount());
+    json.append(",\"rowsScanned\":").append(getRowsScanned());
+    json.append(",\"rowsPartitioned\":").append(getRowsPartitioned());
+    json.append(",\"config\":").append(config == null ? "null" : '"' + config.toString() + '"');
+    json.append(",\"exhaustedBudget\":")
+        .append(exhaustedBudget == null ? "null" : '"' + key(exhaustedBudget) + '"');
+
+    json.append(",\"phases\":{");
+    boolean first = true;
+    for (Phase phase : Phase.values()) {
+      if (getPhaseCalls(phase) == 0) {
+        continue;
+      }
+      json.append(first ? "" : ",").append('"').append(key(phase)).append("\":{");
+      json.append("\"calls\":").append(getPhaseCalls(phase));
+      json.append(",\"millis\":").append(millis(getPhaseNanos(phase)));
+      json.append(",\"allocatedBytes\":").append(getPhaseAllocatedBytes(phase));
+      json.append('}');
+      first = false;
+    }
+    json.append('}');
+
+    json.append(",\"depths\":[");
+    for (int depth = 0; depth < nodesPerDepth.length; depth++) {
+      json.append(depth == 0 ? "" : ",");
+      json.append("{\"depth\":").append(depth);
+      json.append(",\"nodes\":").append(nodesPerDepth[depth]);
+      json.append(",\"leaves\":").append(leavesPerDepth[depth]).append('}');
+    }
+    json.append(']');
+
+    json.append(",\"stopReasons\":{");
+    for (StopReason reason : StopReason.values()) {
+      json.append(reason.ordinal() == 0 ? "" : ",");
+      json.append('"').append(key(reason)).append("\":").append(getLeaves(reason));
+    }
+    json.append("}}");
+    return json.toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  private static String key(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT);
+  }
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+
+  /**
+   * One measurement of a phase on the thread that began it.
+   */
+  final class Probe {
+    private final Phase phase;
+    private final long startNanos;
+    private final long startBytes;
+
+    private Probe(Phase phase) {
+      this.phase = phase;
+      this.startBytes = allocatedBytes();
+      this.startNanos = System.nanoTime();
+    }
+
+    void end() {
+      long nanos = System.nanoTime() - startNanos;
+      long bytes = allocatedBytes() - startBytes;
+      int index = phase.ordinal();
+      phaseCalls[index].increment();
+      phaseNanos[index].add(nanos);
+      phaseBytes[index].add(bytes);
+    }
+  }
+}
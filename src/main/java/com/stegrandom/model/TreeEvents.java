@@ -0,0 +1,83 @@
+package com.stegrandom.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events emitted by {@link DecisionTree}, so recordings
+ * show training and scoring on the same timeline as GC and CPU samples.
+ *
+ * Events follow the usual JFR pattern: they are created on the stack, timed
+ * with begin and commit, and only filled in when {@code shouldCommit()}
+ * says a recording wants them. With no recording running, an event costs a
+ * flag check, so they can stay in serving JVMs. Single-row predictions are
+ * additionally sampled, one in {@link #PREDICT_SAMPLE_INTERVAL}, to keep
+ * them cheap even while recording.
+ */
+final class TreeEvents {
+  static final int PREDICT_SAMPLE_INTERVAL = 1024;
+
+  private TreeEvents() {
+  }
+
+  @Name("com.stegrandom.NodeSplit")
+  @Label("Node Split")
+  @Category({ "Decision Tree", "Training" })
+  @Description("A node evaluated while growing a decision tree, split or made a leaf")
+  static final class NodeSplit extends Event {
+    @Label("Depth")
+    int depth;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Feature")
+    @Description("The split feature, or -1 for a leaf")
+    int feature;
+
+    @Label("Information Gain")
+    double gain;
+
+    @Label("Stop Reason")
+    @Description("Why the node became a leaf, or null if it was split")
+    String stopReason;
+  }
+
+  @Name("com.stegrandom.FitCompleted")
+  @Label("Fit Completed")
+  @Category({ "Decision Tree", "Training" })
+  @Description("A decision tree finished training")
+  static final class FitCompleted extends Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Features")
+    int features;
+
+    @Label("Nodes")
+    int nodes;
+
+    @Label("Exhausted Budget")
+    @Description("The training budget that stopped the fit early, or null")
+    String exhaustedBudget;
+  }
+
+  @Name("com.stegrandom.Predict")
+  @Label("Predict")
+  @Category({ "Decision Tree", "Scoring" })
+  @Description("A batch prediction, or a sampled single-row prediction")
+  static final class Predict extends Event {
+    @Label("Rows")
+    int rows;
+
+    @Label("Sampled")
+    @Description("Whether this is one single-row prediction out of a sample interval")
+    boolean sampled;
+  }
+}
@@ -0,0 +1,381 @@
+package com.stegrandom.utils;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.NumericBins;
+import com.stegrandom.core.EncodedDataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * A dictionary-encoded dataset kept on disk, one file of little-endian int
+ * codes per feature plus one for the labels, for training sets that do not
+ * fit in the heap. Only the dictionaries are held in memory; the columns are
+ * read sequentially in fixed-size blocks through {@link IntReader}.
+ * 
+ * Directory layout: {@code meta.bin} (row count and dictionaries),
+ * {@code labels.bin} and {@code feature-<index>.bin}.
+ */
+public class ColumnStore {
+  public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+
+  private static final String META_FILE = "meta.bin";
+  private static final String LABEL_FILE = "labels.bin";
+
+  private final Path directory;
+  private final long numRows;
+  private final CategoryDictionary[] featureDictionaries;
+  private final CategoryDictionary labelDictionary;
+
+  private ColumnStore(Path directory, long numRows, CategoryDictionary[] featureDictionaries,
+      CategoryDictionary labelDictionary) {
+    this.directory = directory;
+    this.numRows = numRows;
+    this.featureDictionaries = featureDictionaries;
+    this.labelDictionary = labelDictionary;
+  }
+
+  /**
+   * Encodes a stream of raw rows straight to disk, one row at a time.
+   * Numeric features are then binned as {@link EncodedDataset#binNumericFeatures}
+   * does, with one more pass over each of their column files, so the store
+   * holds the same codes as an in-memory encoding of the rows.
+   * 
+   * @param directory    the directory to write the store into
+   * @param rows         rows holding the features and the label, such as
+   *                     {@code DataLoader.stream()}
+   * @param targetColumn the index of the label within each row
+   * @return the written store
+   * @throws IOException if the store cannot be written or a row is malformed
+   */
+  public static ColumnStore write(Path directory, Stream<String[]> rows, int targetColumn) throws IOException {
+    Files.createDirectories(directory);
+    Iterator<String[]> iterator = rows.iterator();
+    if (!iterator.hasNext()) {
+      throw new IOException("Cannot write an empty column store");
+    }
+
+    String[] row = iterator.next();
+    int numFeatures = row.length - 1;
+    CategoryDictionary[] dictionaries = new CategoryDictionary[numFeatures];
+    IntWriter[] writers = new IntWriter[numFeatures];
+    CategoryDictionary labelDictionary = new CategoryDictionary();
+    long numRows = 0;
+    try (IntWriter labels = new IntWriter(directory.resolve(LABEL_FILE))) {
+      for (int f = 0; f < numFeatures; f++) {
+        dictionaries[f] = new CategoryDictionary();
+        writers[f] = new IntWriter(featurePath(directory, f));
+      }
+      while (true) {
+        if (row.length != numFeatures + 1) {
+          throw new IOException(String.format("Expected %d columns but found %d in row %d",
+              numFeatures + 1, row.length, numRows));
+        }
+        for (int column = 0, f = 0; column < row.length; column++) {
+          if (column == targetColumn) {
+            labels.write(labelDictionary.encode(row[column]));
+          } else {
+            writers[f].write(dictionaries[f].encode(row[column]));
+            f++;
+          }
+        }
+        numRows++;
+        if (!iterator.hasNext()) {
+          break;
+        }
+        row = iterator.next();
+      }
+    } finally {
+      for (IntWriter writer : writers) {
+        if (writer != null) {
+          writer.close();
+        }
+      }
+    }
+
+    binNumericFeatures(directory, dictionaries, NumericBins.MAX_BINS);
+    writeMeta(directory, numRows, dictionaries, labelDictionary);
+    return new ColumnStore(directory, numRows, dictionaries, labelDictionary);
+  }
+
+  /**
+   * Replaces the categorical coding of every numeric feature by quantile
+   * bins: one pass counts the codes of its column file, and a second one
+   * rewrites the file with bin codes.
+   */
+  private static void binNumericFeatures(Path directory, CategoryDictionary[] dictionaries, int maxBins)
+      throws IOException {
+    int[] block = new int[DEFAULT_BLOCK_ROWS];
+    for (int f = 0; f < dictionaries.length; f++) {
+      double[] values = NumericBins.numericValues(dictionaries[f]);
+      if (values == null) {
+        continue;
+      }
+
+      Path path = featurePath(directory, f);
+      int[] counts = new int[values.length];
+      try (IntReader reader = new IntReader(path, DEFAULT_BLOCK_ROWS)) {
+        int read;
+        while ((read = reader.read(block)) > 0) {
+          for (int i = 0; i < read; i++) {
+            counts[block[i]]++;
+          }
+        }
+      }
+      NumericBins bins = NumericBins.fromCounts(values, counts, maxBins);
+      int[] remap = new int[values.length];
+      for (int code = 0; code < values.length; code++) {
+        remap[code] = bins.binOf(values[code]);
+      }
+
+      Path binned = directory.resolve("feature-" + f + ".bin.tmp");
+      try (IntReader reader = new IntReader(path, DEFAULT_BLOCK_ROWS);
+          IntWriter writer = new IntWriter(binned)) {
+        int read;
+        while ((read = reader.read(block)) > 0) {
+          for (int i = 0; i < read; i++) {
+            writer.write(remap[block[i]]);
+          }
+        }
+      }
+      Files.move(binned, path, StandardCopyOption.REPLACE_EXISTING);
+      dictionaries[f] = bins;
+    }
+  }
+
+  /**
+   * Writes an in-memory encoded dataset to disk, keeping its codes.
+   */
+  public static ColumnStore write(Path directory, EncodedDataset data) throws IOException {
+    Files.createDirectories(directory);
+    CategoryDictionary[] dictionaries = new CategoryDictionary[data.getNumFeatures()];
+    for (int f = 0; f < dictionaries.length; f++) {
+      dictionaries[f] = data.getFeatureDictionary(f);
+      try (IntWriter writer = new IntWriter(featurePath(directory, f))) {
+        for (int code : data.getColumn(f)) {
+          writer.write(code);
+        }
+      }
+    }
+    try (IntWriter writer = new IntWriter(directory.resolve(LABEL_FILE))) {
+      for (int code : data.getLabels()) {
+        writer.write(code);
+      }
+    }
+    writeMeta(directory, data.getNumRows(), dictionaries, data.getLabelDictionary());
+    return new ColumnStore(directory, data.getNumRows(), dictionaries, data.getLabelDictionary());
+  }
+
+  /**
+   * Opens a store written earlier, reading only its dictionaries.
+   */
+  public static ColumnStore open(Path directory) throws IOException {
+    Path meta = directory.resolve(META_FILE);
+    // Counts read from the file are checked against its size before they
+    // are allocated for, so a corrupt file fails with an IOException
+    long metaSize = Files.size(meta);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta)))) {
+      long numRows = in.readLong();
+      int numFeatures = in.readInt();
+      if (numRows < 0 || numFeatures < 0 || 4L * numFeatures > metaSize) {
+        throw new IOException("Corrupt column store metadata: " + meta);
+      }
+      CategoryDictionary[] dictionaries = new CategoryDictionary[numFeatures];
+      for (int f = 0; f < numFeatures; f++) {
+        dictionaries[f] = readDictionary(in, meta, metaSize);
+      }
+      CategoryDictionary labelDictionary = readDictionary(in, meta, metaSize);
+      return new ColumnStore(directory, numRows, dictionaries, labelDictionary);
+    }
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  public long getNumRows() {
+    return numRows;
+  }
+
+  public int getNumFeatures() {
+    return featureDictionaries.length;
+  }
+
+  public int getNumClasses() {
+    return labelDictionary.size();
+  }
+
+  public CategoryDictionary getFeatureDictionary(int feature) {
+    return featureDictionaries[feature];
+  }
+
+  public CategoryDictionary getLabelDictionary() {
+    return labelDictionary;
+  }
+
+  public IntReader openFeature(int feature, int blockRows) throws IOException {
+    return new IntReader(featurePath(directory, feature), blockRows);
+  }
+
+  public IntReader openLabels(int blockRows) throws IOException {
+    return new IntReader(directory.resolve(LABEL_FILE), blockRows);
+  }
+
+  private static Path featurePath(Path directory, int feature) {
+    return directory.resolve("feature-" + feature + ".bin");
+  }
+
+  private static void writeMeta(Path directory, long numRows, CategoryDictionary[] dictionaries,
+      CategoryDictionary labelDictionary) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(directory.resolve(META_FILE))))) {
+      out.writeLong(numRows);
+      out.writeInt(dictionaries.length);
+      for (CategoryDictionary dictionary : dictionaries) {
+        writeDictionary(out, dictionary);
+      }
+      writeDictionary(out, labelDictionary);
+    }
+  }
+
+  private static void writeDictionary(DataOutputStream out, CategoryDictionary dictionary) throws IOException {
+    if (dictionary instanceof NumericBins) {
+      // A negative count marks numeric bins, stored as their upper bounds
+      double[] bounds = ((NumericBins) dictionary).getUpperBounds();
+      out.writeInt(-bounds.length);
+      for (double bound : bounds) {
+        out.writeDouble(bound);
+      }
+      return;
+    }
+    out.writeInt(dictionary.size());
+    for (int code = 0; code < dictionary.size(); code++) {
+      out.writeUTF(dictionary.decode(code));
+    }
+  }
+
+  private static CategoryDictionary readDictionary(DataInputStream in, Path meta, long metaSize)
+      throws IOException {
+    int size = in.readInt();
+    if (size < 0) {
+      if (-(long) size * 8 > metaSize) {
+        throw new IOException("Corrupt column store metadata: " + meta);
+      }
+      double[] bounds = new double[-size];
+      for (int bin = 0; bin < bounds.length; bin++) {
+        bounds[bin] = in.readDouble();
+      }
+      try {
+        return new NumericBins(bounds);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Corrupt column store metadata: " + meta, e);
+      }
+    }
+    // Every value takes at least its 2-byte length
+    if (2L * size > metaSize) {
+      throw new IOException("Corrupt column store metadata: " + meta);
+    }
+    CategoryDictionary dictionary = new CategoryDictionary();
+    for (int code = 0; code < size; code++) {
+      dictionary.encode(in.readUTF());
+    }
+    if (dictionary.size() != size) {
+      throw new IOException("Corrupt column store metadata: " + meta);
+    }
+    return dictionary;
+  }
+
+  /**
+   * Reads a file of little-endian ints sequentially, one block at a time.
+   */
+  public static class IntReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    public IntReader(Path path, int blockRows) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.buffer = ByteBuffer.allocateDirect(4 * blockRows).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Fills the array with the next values of the file.
+     * 
+     * @return the number of values read, less than the array length only at
+     *         the end of the file
+     */
+    public int read(int[] into) throws IOException {
+      int count = 0;
+      boolean endOfFile = false;
+      while (count < into.length && !endOfFile) {
+        buffer.clear().limit(Math.min(buffer.capacity(), 4 * (into.length - count)));
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            endOfFile = true;
+            break;
+          }
+        }
+        buffer.flip();
+        if (buffer.remaining() % 4 != 0) {
+          throw new IOException("Column file ends inside a value");
+        }
+        int values = buffer.remaining() / 4;
+        buffer.asIntBuffer().get(into, count, values);
+        count += values;
+      }
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes a file of little-endian ints sequentially through a block buffer.
+   */
+  public static class IntWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    public IntWriter(Path path) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+      this.buffer = ByteBuffer.allocateDirect(4 * DEFAULT_BLOCK_ROWS).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void write(int value) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.putInt(value);
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+  }
+}
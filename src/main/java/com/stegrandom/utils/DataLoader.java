@@ -3,8 +3,10 @@ package com.stegrandom.utils;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class DataLoader {
     private String filePath;
@@ -13,42 +15,8 @@ public class DataLoader {
         this.filePath = filePath;
     }
 
-    // Handles both continuous and categorical values
-    // public Object[][] load() throws IOException {
-    // Object[][] features = null;
-    // // Create a buffered reader to efficiently read the file
-    // try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-    // // Read the header line first - it contains feature names
-    // String headerLine = reader.readLine();
-    // if (headerLine != null) {
-    // // Split the header line to get feature names
-    // String[] headers = headerLine.split(",");
-
-    // // Create a list to store all data rows
-    // List<Object[]> dataRows = new ArrayList<>();
-
-    // // Read the rest of the file line by line
-    // String line;
-    // while ((line = reader.readLine()) != null) {
-    // // Split each line into an array of values
-    // String[] values = line.split(",");
-    // Object[] typedValues = new Object[values.length];
-
-    // for (int i = 0; i < values.length; i++) {
-    // typedValues[i] = parseValue(values[i]);
-    // }
-
-    // dataRows.add(typedValues);
-    // }
-
-    // // Convert list to array for easier processing
-    // features = dataRows.toArray(new Object[0][]);
-    // }
-    // }
-    // return features;
-    // }
-
-    // Assumes all features in the dataset are categorical
+    // Reads every value as a String; numeric columns are detected and binned
+    // when the data is encoded, see EncodedDataset.binNumericFeatures
     public String[][] load() throws IOException {
         String[][] features = null;
         // Create a buffered reader to efficiently read the file
@@ -77,15 +45,25 @@ public class DataLoader {
         return features;
     }
 
-    private static Object parseValue(String value) {
+    // Streams the data rows one at a time without loading the whole file, for
+    // incremental learners. The header line is skipped; close the stream to
+    // release the file.
+    public Stream<String[]> stream() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(filePath));
         try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e1) {
-            try {
-                return Double.parseDouble(value);
-            } catch (NumberFormatException e2) {
-                return value;
-            }
+            reader.readLine();
+        } catch (IOException e) {
+            reader.close();
+            throw e;
         }
+        return reader.lines()
+                .map(line -> line.split(","))
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 }
@@ -0,0 +1,373 @@
+package com.stegrandom.utils;
+
+import com.stegrandom.core.CategoryDictionary;
+import com.stegrandom.core.EncodedDataset;
+import com.stegrandom.core.NumericBins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a categorical CSV file straight into an {@link EncodedDataset}.
+ * 
+ * The file is memory-mapped and cut into chunks at line boundaries, and the
+ * chunks are parsed in parallel from the raw bytes. Each chunk interns its
+ * cells into per-column byte dictionaries, so a String is only created once
+ * per distinct value per chunk rather than once per cell. The chunk
+ * dictionaries are then merged in file order, so each value gets the code
+ * that {@link EncodedDataset#encode} assigns it in the rows the same file
+ * parses to.
+ * 
+ * Like {@link DataLoader}, the first line is the header, lines end at "\n"
+ * or "\r\n" and cells are split on plain commas without quote handling.
+ * Unlike it, this loader skips blank lines, keeps trailing empty cells as
+ * empty values where DataLoader's split drops them, does not end a line at
+ * a lone "\r" and rejects rows whose number of cells differs from the
+ * header's. Both therefore give the same rows, and the same codes, only for
+ * files in which every line has the header's number of cells and a
+ * non-empty last cell.
+ */
+public class MappedCsvLoader {
+  public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+  private final Path path;
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+  private String[] headers;
+
+  public MappedCsvLoader(String filePath) {
+    this(filePath, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param filePath  the CSV file to load
+   * @param pool      the pool the chunks are parsed on
+   * @param chunkSize the approximate number of bytes per parsed chunk
+   */
+  public MappedCsvLoader(String filePath, ForkJoinPool pool, int chunkSize) {
+    this.path = Paths.get(filePath);
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @return the column names from the header line of the last load
+   */
+  public String[] getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Loads the file, using one column as the labels and the rest as features.
+   * 
+   * @param targetColumn the index of the label column in the file
+   * @return the encoded dataset, with features in file order minus the target
+   *         and numeric features binned
+   * @throws IOException if the file cannot be read or a row is malformed
+   */
+  public EncodedDataset load(int targetColumn) throws IOException {
+    List<Chunk> chunks = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long dataStart = readHeader(channel, size);
+      int numColumns = headers.length;
+      if (targetColumn < 0 || targetColumn >= numColumns) {
+        throw new IllegalArgumentException("Target column " + targetColumn + " is outside the "
+            + numColumns + " columns of " + path);
+      }
+
+      // Cut the data into chunks that end just after a newline
+      long start = dataStart;
+      while (start < size) {
+        long end = Math.min(size, start + chunkSize);
+        if (end < size) {
+          end = nextLineStart(channel, end, size);
+        }
+        chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, numColumns));
+        start = end;
+      }
+
+      List<Future<Chunk>> parsed = new ArrayList<>();
+      for (Chunk chunk : chunks) {
+        parsed.add(pool.submit((Callable<Chunk>) () -> {
+          chunk.parse();
+          return chunk;
+        }));
+      }
+      for (Future<Chunk> future : parsed) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while loading " + path, e);
+        } catch (ExecutionException e) {
+          // The pool may wrap the parser's IOException in a RuntimeException
+          for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+              throw (IOException) cause;
+            }
+          }
+          throw new IOException("Failed to parse " + path, e.getCause());
+        }
+      }
+    }
+
+    return merge(chunks, targetColumn);
+  }
+
+  private long readHeader(FileChannel channel, long size) throws IOException {
+    long headerEnd = nextLineStart(channel, 0, size);
+    ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+    channel.read(header, 0);
+    String line = new String(header.array(), 0, (int) headerEnd, StandardCharsets.UTF_8).strip();
+    if (line.isEmpty()) {
+      throw new IOException("Missing header line in " + path);
+    }
+    this.headers = line.split(",", -1);
+    return headerEnd;
+  }
+
+  /**
+   * @return the position just after the first newline at or after from, or
+   *         size if there is none
+   */
+  private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(8192);
+    long position = from;
+    while (position < size) {
+      window.clear();
+      int read = channel.read(window, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (window.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private EncodedDataset merge(List<Chunk> chunks, int targetColumn) {
+    int numColumns = headers.length;
+    int numRows = 0;
+    for (Chunk chunk : chunks) {
+      numRows += chunk.numRows;
+    }
+
+    CategoryDictionary[] dictionaries = new CategoryDictionary[numColumns];
+    int[][] columns = new int[numColumns][numRows];
+    for (int column = 0; column < numColumns; column++) {
+      dictionaries[column] = new CategoryDictionary();
+    }
+
+    int rowOffset = 0;
+    for (Chunk chunk : chunks) {
+      for (int column = 0; column < numColumns; column++) {
+        ByteDictionary local = chunk.dictionaries[column];
+        int[] remap = new int[local.size()];
+        for (int code = 0; code < remap.length; code++) {
+          remap[code] = dictionaries[column].encode(local.decode(code));
+        }
+        int[] source = chunk.columns[column];
+        int[] target = columns[column];
+        for (int row = 0; row < chunk.numRows; row++) {
+          target[rowOffset + row] = remap[source[row]];
+        }
+      }
+      rowOffset += chunk.numRows;
+    }
+
+    int[][] featureColumns = new int[numColumns - 1][];
+    CategoryDictionary[] featureDictionaries = new CategoryDictionary[numColumns - 1];
+    for (int column = 0, feature = 0; column < numColumns; column++) {
+      if (column != targetColumn) {
+        featureColumns[feature] = columns[column];
+        featureDictionaries[feature++] = dictionaries[column];
+      }
+    }
+    EncodedDataset data = new EncodedDataset(featureColumns, columns[targetColumn], featureDictionaries,
+        dictionaries[targetColumn]);
+    data.binNumericFeatures(NumericBins.MAX_BINS);
+    return data;
+  }
+
+  /**
+   * One line-aligned region of the file and its locally coded columns.
+   */
+  private static class Chunk {
+    private final MappedByteBuffer bytes;
+    private final long fileOffset;
+    private final int numColumns;
+    private final ByteDictionary[] dictionaries;
+    private int[][] columns;
+    private int numRows;
+
+    Chunk(MappedByteBuffer bytes, long fileOffset, int numColumns) {
+      this.bytes = bytes;
+      this.fileOffset = fileOffset;
+      this.numColumns = numColumns;
+      this.dictionaries = new ByteDictionary[numColumns];
+      for (int column = 0; column < numColumns; column++) {
+        dictionaries[column] = new ByteDictionary();
+      }
+      this.columns = new int[numColumns][1024];
+    }
+
+    void parse() throws IOException {
+      int end = bytes.limit();
+      int lineStart = 0;
+      while (lineStart < end) {
+        int column = 0;
+        int cellStart = lineStart;
+        int i = lineStart;
+        while (true) {
+          byte b = i < end ? bytes.get(i) : (byte) '\n';
+          if (b == ',' || b == '\n') {
+            int cellEnd = i;
+            if (b == '\n' && cellEnd > cellStart && bytes.get(cellEnd - 1) == '\r') {
+              cellEnd--;
+            }
+            if (b == '\n' && column == 0 && cellEnd == cellStart) {
+              break; // blank line
+            }
+            if (column >= numColumns) {
+              throw malformed(lineStart, column + 1);
+            }
+            if (numRows == columns[column].length) {
+              grow();
+            }
+            columns[column][numRows] = dictionaries[column].intern(bytes, cellStart, cellEnd - cellStart);
+            column++;
+            cellStart = i + 1;
+            if (b == '\n') {
+              if (column != numColumns) {
+                throw malformed(lineStart, column);
+              }
+              numRows++;
+              break;
+            }
+          }
+          i++;
+        }
+        lineStart = i + 1;
+      }
+    }
+
+    private void grow() {
+      for (int column = 0; column < numColumns; column++) {
+        columns[column] = Arrays.copyOf(columns[column], columns[column].length * 2);
+      }
+    }
+
+    private IOException malformed(int lineStart, int cells) {
+      return new IOException(String.format("Expected %d columns but found %d in the line at byte offset %d",
+          numColumns, cells, fileOffset + lineStart));
+    }
+  }
+
+  /**
+   * An open-addressing hash table from byte sequences to dense codes. Values
+   * are copied into one byte arena; a String is only created on decode.
+   */
+  private static class ByteDictionary {
+    private byte[] arena = new byte[256];
+    private int arenaSize;
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int[] hashes = new int[16];
+    private int[] slots = new int[32]; // code + 1, 0 means empty
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    String decode(int code) {
+      return new String(arena, starts[code], lengths[code], StandardCharsets.UTF_8);
+    }
+
+    int intern(ByteBuffer bytes, int offset, int length) {
+      int hash = 0x811c9dc5;
+      for (int i = offset; i < offset + length; i++) {
+        hash = (hash ^ bytes.get(i)) * 0x01000193;
+      }
+
+      int mask = slots.length - 1;
+      int slot = hash & mask;
+      while (slots[slot] != 0) {
+        int code = slots[slot] - 1;
+        if (hashes[code] == hash && equalsAt(code, bytes, offset, length)) {
+          return code;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      int code = add(bytes, offset, length, hash);
+      slots[slot] = code + 1;
+      if (2 * size > slots.length) {
+        rehash();
+      }
+      return code;
+    }
+
+    private boolean equalsAt(int code, ByteBuffer bytes, int offset, int length) {
+      if (lengths[code] != length) {
+        return false;
+      }
+      int start = starts[code];
+      for (int i = 0; i < length; i++) {
+        if (arena[start + i] != bytes.get(offset + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int add(ByteBuffer bytes, int offset, int length, int hash) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+        hashes = Arrays.copyOf(hashes, size * 2);
+      }
+      if (arenaSize + length > arena.length) {
+        arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+      }
+      for (int i = 0; i < length; i++) {
+        arena[arenaSize + i] = bytes.get(offset + i);
+      }
+      starts[size] = arenaSize;
+      lengths[size] = length;
+      hashes[size] = hash;
+      arenaSize += length;
+      return size++;
+    }
+
+    private void rehash() {
+      slots = new int[slots.length * 2];
+      int mask = slots.length - 1;
+      for (int code = 0; code < size; code++) {
+        int slot = hashes[code] & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = code + 1;
+      }
+    }
+  }
+}
@@ -1,4 +1,67 @@
 package com.stegrandom.utils;
 
+import com.stegrandom.core.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 public class TreeVisualizer {
+
+    /**
+     * Prints a tree of nodes with one line per node, children sorted by
+     * feature value.
+     * 
+     * @param root         the root of the tree, or null for an empty tree
+     * @param featureNames names to print for split features, may be null
+     * @param title        the heading printed above the tree
+     */
+    public static void printTree(Node root, String[] featureNames, String title) {
+        if (root == null) {
+            System.out.println("Tree is empty");
+            return;
+        }
+        System.out.println("\n" + title + ":");
+        System.out.println("=".repeat(title.length() + 1));
+        printNode(root, featureNames, "", "ROOT");
+    }
+
+    /**
+     * Private recursive method to print each node
+     * 
+     * @param node         Current node being printed
+     * @param featureNames Names of the split features, may be null
+     * @param indent       Current indentation string
+     * @param branchLabel  Label for the current branch
+     */
+    private static void printNode(Node node, String[] featureNames, String indent, String branchLabel) {
+        // Print current node with its branch label
+        System.out.print(indent + "├── " + branchLabel);
+
+        if (node.isLeaf()) {
+            // For leaf nodes, print the prediction
+            System.out.println(" → " + node.getPredictedClass());
+        } else {
+            // For internal nodes, print the split feature name or index
+            int featureIndex = node.getSplitFeatureIndex();
+            String featureName = featureNames != null && featureIndex < featureNames.length
+                    ? featureNames[featureIndex]
+                    : "feature " + featureIndex;
+            System.out.println(" [Split on " + featureName + "]");
+
+            // Print each child with increased indentation
+            String newIndent = indent + "│   ";
+            Map<String, Node> children = node.getChildren();
+
+            // Sort the feature values for consistent output
+            List<String> sortedFeatureValues = new ArrayList<>(children.keySet());
+            Collections.sort(sortedFeatureValues);
+
+            for (String featureValue : sortedFeatureValues) {
+                Node child = children.get(featureValue);
+                printNode(child, featureNames, newIndent, featureValue);
+            }
+        }
+    }
 }